@@ -0,0 +1,16 @@
+package com.yy.ent;
+
+import java.util.List;
+
+/**
+ * 自动补全的候选来源,在后台线程调用
+ */
+public interface CandidateSource {
+    /**
+     * @param rule   触发的规则
+     * @param prefix 已输入的查询内容,可能为空
+     * @param limit  最多返回的个数
+     * @return 候选列表, mUserId和mUserName(不含触发字符串)需要填好
+     */
+    List<XlpsFriend> query(MentionRule rule, String prefix, int limit);
+}
@@ -0,0 +1,157 @@
+package com.yy.ent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 联系人名字的前缀索引,有序数组+二分查找
+ * <p>
+ * 每个名字按整体和其中每个单词分别建索引(不区分大小写),查询是O(log n + 结果个数),
+ * 5万个联系人也远小于一帧;创建后不可修改,可以在后台线程创建后直接交给{@link SuggestionLoader}使用
+ * <p>
+ * 每种规则另有一份只含该规则联系人的有序数组,按规则查询时只扫描该规则的部分
+ */
+public class ContactPrefixIndex implements CandidateSource {
+    private final Keys mAll;// 所有规则
+    private final HashMap<String, Keys> mByRule = new HashMap<String, Keys>();// 按触发字符串
+
+    /**
+     * 已排序的小写名字/单词和对应的联系人
+     */
+    private static final class Keys {
+        final String[] mKeys;
+        final XlpsFriend[] mContacts;
+
+        Keys(List<Entry> sorted) {
+            mKeys = new String[sorted.size()];
+            mContacts = new XlpsFriend[sorted.size()];
+            for (int i = 0; i < mKeys.length; i++) {
+                mKeys[i] = sorted.get(i).mKey;
+                mContacts[i] = sorted.get(i).mContact;
+            }
+        }
+
+        int lowerBound(String key) {
+            int low = 0;
+            int high = mKeys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mKeys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        List<XlpsFriend> query(String prefix, int limit) {
+            String key = normalize(prefix);
+            ArrayList<XlpsFriend> result = new ArrayList<XlpsFriend>(Math.min(limit, 16));
+            for (int i = lowerBound(key); i < mKeys.length && result.size() < limit
+                    && mKeys[i].startsWith(key); i++) {
+                XlpsFriend contact = mContacts[i];
+                if (!containsIdentity(result, contact)) {
+                    result.add(contact);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final String mKey;
+        final XlpsFriend mContact;
+
+        Entry(String key, XlpsFriend contact) {
+            mKey = key;
+            mContact = contact;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return mKey.compareTo(other.mKey);
+        }
+    }
+
+    /**
+     * @param contacts 联系人,mUserName为名字(不含触发字符串),mRule为所属的规则
+     */
+    public ContactPrefixIndex(Collection<XlpsFriend> contacts) {
+        ArrayList<Entry> entries = new ArrayList<Entry>(contacts.size());
+        for (XlpsFriend contact : contacts) {
+            if (contact == null || contact.mUserName == null) {
+                continue;
+            }
+            String name = normalize(contact.mUserName);
+            entries.add(new Entry(name, contact));
+            for (int i = 1; i < name.length(); i++) {
+                if (Character.isWhitespace(name.charAt(i - 1)) && !Character.isWhitespace(name.charAt(i))) {
+                    entries.add(new Entry(name.substring(i), contact));
+                }
+            }
+        }
+        Entry[] sorted = entries.toArray(new Entry[entries.size()]);
+        Arrays.sort(sorted);
+        List<Entry> all = Arrays.asList(sorted);
+        mAll = new Keys(all);
+        // 按规则分组,组内保持已排好的顺序
+        HashMap<String, ArrayList<Entry>> groups = new HashMap<String, ArrayList<Entry>>();
+        for (Entry entry : all) {
+            String rule = entry.mContact.mRule;
+            if (rule == null) {
+                continue;
+            }
+            ArrayList<Entry> group = groups.get(rule);
+            if (group == null) {
+                group = new ArrayList<Entry>();
+                groups.put(rule, group);
+            }
+            group.add(entry);
+        }
+        for (Map.Entry<String, ArrayList<Entry>> group : groups.entrySet()) {
+            mByRule.put(group.getKey(), new Keys(group.getValue()));
+        }
+    }
+
+    /**
+     * 索引的名字/单词个数
+     */
+    public int size() {
+        return mAll.mKeys.length;
+    }
+
+    /**
+     * 只返回属于rule的联系人,例如"#"触发时不返回@好友
+     */
+    @Override
+    public List<XlpsFriend> query(MentionRule rule, String prefix, int limit) {
+        Keys keys = mByRule.get(rule.getTrigger());
+        return keys != null ? keys.query(prefix, limit) : new ArrayList<XlpsFriend>(0);
+    }
+
+    /**
+     * 名字或其中某个单词以prefix开头的联系人,按名字排序,同一个联系人只返回一次
+     */
+    public List<XlpsFriend> query(String prefix, int limit) {
+        return mAll.query(prefix, limit);
+    }
+
+    private static boolean containsIdentity(List<XlpsFriend> list, XlpsFriend contact) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == contact) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,157 @@
+package com.yy.ent;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 草稿自动保存
+ * <p>
+ * 连续编辑时只在停止输入delayMillis之后保存一次;保存时在主线程把文本和@好友编码成
+ * {@link DraftCodec}格式作为快照,写文件在后台线程进行,输入不受磁盘速度影响。
+ * 后台还没写完时又有新的快照,只保留最新的一份;读取草稿也在同一个后台线程,排在已提交的写入之后
+ */
+public class DraftAutosaver {
+
+    /**
+     * 草稿读取结果,在主线程回调
+     */
+    public interface LoadListener {
+        /**
+         * @param draft 草稿内容, 没有草稿或读取失败为null
+         */
+        void onDraftLoaded(ByteBuffer draft);
+    }
+
+    public static final long DEFAULT_DELAY_MILLIS = 500;
+
+    private final RichEditText mEditText;
+    private final DraftFileStore mStore;
+    private final Executor mExecutor;
+    private final long mDelayMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<ByteBuffer> mPending = new AtomicReference<ByteBuffer>();// 等待写入的快照
+    private boolean mScheduled;
+    private long mLastEditTime;// 最后一次编辑的时间,uptimeMillis
+
+    private final Runnable mSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            // 计时期间又有编辑时不重新post,到时间后再按最后一次编辑顺延
+            long remaining = mLastEditTime + mDelayMillis - SystemClock.uptimeMillis();
+            if (remaining > 0) {
+                mHandler.postDelayed(this, remaining);
+                return;
+            }
+            mScheduled = false;
+            flush();
+        }
+    };
+
+    private final Runnable mWrite = new Runnable() {
+        @Override
+        public void run() {
+            ByteBuffer draft = mPending.getAndSet(null);
+            if (draft == null) {
+                return;
+            }
+            try {
+                mStore.write(draft);
+                MentionTrace.debug("draft_saved", draft.limit(), 0, 0);
+            } catch (IOException e) {
+                MentionTrace.info("draft_save_failed", draft.limit(), 0, 0);
+            }
+        }
+    };
+
+    public DraftAutosaver(RichEditText editText, DraftFileStore store, Executor executor) {
+        this(editText, store, executor, DEFAULT_DELAY_MILLIS);
+    }
+
+    public DraftAutosaver(RichEditText editText, DraftFileStore store, Executor executor, long delayMillis) {
+        mEditText = editText;
+        mStore = store;
+        mExecutor = executor;
+        mDelayMillis = delayMillis;
+    }
+
+    public DraftFileStore getStore() {
+        return mStore;
+    }
+
+    /**
+     * 内容有变化,重新开始计时
+     * <p>
+     * 每次按键只记录时间,已经在计时的不再移除和重新post
+     */
+    public void onEdit() {
+        mLastEditTime = SystemClock.uptimeMillis();
+        if (!mScheduled) {
+            mScheduled = true;
+            mHandler.postDelayed(mSnapshot, mDelayMillis);
+        }
+    }
+
+    /**
+     * 立即生成快照并交给后台写入,例如页面onPause时调用
+     */
+    public void flush() {
+        if (mScheduled) {
+            mHandler.removeCallbacks(mSnapshot);
+            mScheduled = false;
+        }
+        ByteBuffer draft = ByteBuffer.allocate(mEditText.getDraftMaxSize());
+        mEditText.saveDraft(draft);
+        draft.flip();
+        // 之前的快照还没写入就直接替换,只需要再提交一次写入
+        if (mPending.getAndSet(draft) == null) {
+            mExecutor.execute(mWrite);
+        }
+    }
+
+    /**
+     * 有还没保存的修改时立即保存,否则什么也不做,例如替换或关闭自动保存时
+     */
+    public void flushPending() {
+        if (mScheduled) {
+            flush();
+        }
+    }
+
+    /**
+     * 在后台线程读取草稿,结果回到主线程交给listener
+     */
+    public void load(final LoadListener listener) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer draft = null;
+                try {
+                    draft = mStore.read();
+                } catch (IOException e) {
+                    MentionTrace.info("draft_restore_failed", 0, 0, 0);
+                }
+                final ByteBuffer result = draft;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onDraftLoaded(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 取消还没生成的快照,已交给后台的照常写入
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mSnapshot);
+        mScheduled = false;
+    }
+}
@@ -0,0 +1,228 @@
+package com.yy.ent;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 草稿(文本+@好友)的二进制格式,代替每个@好友一个JSONObject的写法
+ * <p>
+ * 格式(整数都是varint,用户id先zigzag):
+ * <pre>
+ * 版本号(1字节) 文本字符数 文本(UTF-8)
+ * @好友个数 { 与上一个结束位置的距离 长度 用户id 状态(1字节,相对FLAG_NORMAL) 规则 }...
+ * </pre>
+ * 规则与上一个@好友相同时只写0,否则写字符数+1再写UTF-8;名字就是对应位置的文本,不单独保存
+ * <p>
+ * 直接读写ByteBuffer,写入过程不创建对象
+ */
+public final class DraftCodec {
+    public static final int VERSION = 1;
+    private static final String DEFAULT_RULE = "@";
+
+    private DraftCodec() {
+    }
+
+    /**
+     * 写入后最多占用的字节数
+     */
+    public static int maxEncodedSize(CharSequence text, MentionIndex<XlpsFriend> index) {
+        int size = 1 + 5 + 3 * text.length() + 5;
+        for (int i = 0; i < index.size(); i++) {
+            String rule = index.get(i).mRule;
+            size += 5 + 5 + 10 + 1 + 5 + (rule != null ? 3 * rule.length() : 0);
+        }
+        return size;
+    }
+
+    /**
+     * @throws java.nio.BufferOverflowException out剩余空间不够
+     */
+    public static void encode(CharSequence text, MentionIndex<XlpsFriend> index, ByteBuffer out) {
+        out.put((byte) VERSION);
+        writeVarint(out, text.length());
+        writeUtf8(out, text);
+        writeVarint(out, index.size());
+        String prevRule = DEFAULT_RULE;
+        int prevEnd = 0;
+        for (int i = 0; i < index.size(); i++) {
+            XlpsFriend xlpsFriend = index.get(i);
+            int start = index.start(i);
+            int end = index.end(i);
+            writeVarint(out, start - prevEnd);
+            writeVarint(out, end - start);
+            writeVarlong(out, (xlpsFriend.mUserId << 1) ^ (xlpsFriend.mUserId >> 63));
+            out.put((byte) (xlpsFriend.mFlag - XlpsFriend.FLAG_NORMAL));
+            String rule = xlpsFriend.mRule != null ? xlpsFriend.mRule : "";
+            if (rule.equals(prevRule)) {
+                writeVarint(out, 0);
+            } else {
+                writeVarint(out, rule.length() + 1);
+                writeUtf8(out, rule);
+                prevRule = rule;
+            }
+            prevEnd = end;
+        }
+    }
+
+    /**
+     * 读取草稿,文本追加到text后面,@好友按追加后的位置加入index
+     *
+     * @throws IllegalArgumentException         版本不支持或数据不合法
+     * @throws java.nio.BufferUnderflowException 数据不完整
+     */
+    public static void decode(ByteBuffer in, StringBuilder text, MentionIndex<XlpsFriend> index) {
+        int version = in.get() & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported draft version " + version);
+        }
+        int base = text.length();
+        int length = readVarint(in);
+        readUtf8(in, length, text);
+        int count = readVarint(in);
+        String rule = DEFAULT_RULE;
+        int prevEnd = 0;
+        for (int i = 0; i < count; i++) {
+            int start = prevEnd + readVarint(in);
+            int end = start + readVarint(in);
+            if (start < prevEnd || end <= start || end > length) {
+                throw new IllegalArgumentException("bad mention range " + start + ".." + end);
+            }
+            long zigzag = readVarlong(in);
+            int flag = XlpsFriend.FLAG_NORMAL + in.get();
+            if (flag < XlpsFriend.FLAG_NORMAL || flag > XlpsFriend.FLAG_CLEAR) {
+                throw new IllegalArgumentException("bad mention flag " + flag);
+            }
+            int ruleLength = readVarint(in);
+            if (ruleLength > 0) {
+                StringBuilder ruleText = new StringBuilder(ruleLength - 1);
+                readUtf8(in, ruleLength - 1, ruleText);
+                rule = ruleText.toString();
+            }
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mUserId = (zigzag >>> 1) ^ -(zigzag & 1);
+            xlpsFriend.mFlag = flag;
+            xlpsFriend.mRule = rule;
+            xlpsFriend.startPos = base + start;
+            xlpsFriend.endPos = base + end;
+            xlpsFriend.mUserName = text.substring(xlpsFriend.startPos, xlpsFriend.endPos);
+            index.add(xlpsFriend, xlpsFriend.startPos, xlpsFriend.endPos);
+            prevEnd = end;
+        }
+    }
+
+    private static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void writeVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("negative varint");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint too long");
+    }
+
+    private static long readVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varlong too long");
+    }
+
+    /**
+     * UTF-8编码,补充平面字符(成对的代理字符)写成4字节,单独的代理字符写成'?'
+     */
+    private static void writeUtf8(ByteBuffer out, CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xc0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xf0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                out.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // 保持字符数不变,位置才能对得上
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xe0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                out.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    /**
+     * 读取length个字符(UTF-16)
+     */
+    private static void readUtf8(ByteBuffer in, int length, StringBuilder text) {
+        text.ensureCapacity(text.length() + length);
+        int read = 0;
+        while (read < length) {
+            int b = in.get() & 0xff;
+            if (b < 0x80) {
+                text.append((char) b);
+                read++;
+            } else if (b < 0xc0 || b >= 0xf8) {
+                throw new IllegalArgumentException("bad utf-8 sequence");
+            } else if (b < 0xe0) {
+                text.append((char) (((b & 0x1f) << 6) | continuation(in)));
+                read++;
+            } else if (b < 0xf0) {
+                int high = continuation(in);
+                text.append((char) (((b & 0x0f) << 12) | (high << 6) | continuation(in)));
+                read++;
+            } else {
+                int codePoint = ((b & 0x07) << 18) | (continuation(in) << 12);
+                codePoint |= continuation(in) << 6;
+                codePoint |= continuation(in);
+                if (read + 2 > length || codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT
+                        || codePoint > Character.MAX_CODE_POINT) {
+                    throw new IllegalArgumentException("bad utf-8 sequence");
+                }
+                codePoint -= Character.MIN_SUPPLEMENTARY_CODE_POINT;
+                text.append((char) (Character.MIN_HIGH_SURROGATE + (codePoint >>> 10)));
+                text.append((char) (Character.MIN_LOW_SURROGATE + (codePoint & 0x3ff)));
+                read += 2;
+            }
+        }
+    }
+
+    private static int continuation(ByteBuffer in) {
+        int b = in.get() & 0xff;
+        if ((b & 0xc0) != 0x80) {
+            throw new IllegalArgumentException("bad utf-8 sequence");
+        }
+        return b & 0x3f;
+    }
+}
@@ -0,0 +1,76 @@
+package com.yy.ent;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 草稿文件,写入时先写临时文件并同步到磁盘,再重命名覆盖,中途崩溃也不会留下半个草稿
+ * <p>
+ * 不做线程同步,同一个文件只在一个线程里写
+ */
+public class DraftFileStore {
+    private final File mFile;
+    private final File mTmpFile;
+
+    public DraftFileStore(File file) {
+        mFile = file;
+        mTmpFile = new File(file.getPath() + ".tmp");
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * 写入draft剩余的内容
+     */
+    public void write(ByteBuffer draft) throws IOException {
+        FileOutputStream out = new FileOutputStream(mTmpFile);
+        try {
+            FileChannel channel = out.getChannel();
+            while (draft.hasRemaining()) {
+                channel.write(draft);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            out.close();
+            mTmpFile.delete();
+            throw e;
+        }
+        out.close();
+        if (!mTmpFile.renameTo(mFile)) {
+            mTmpFile.delete();
+            throw new IOException("rename failed: " + mFile);
+        }
+    }
+
+    /**
+     * @return 草稿内容, 没有草稿返回null
+     */
+    public ByteBuffer read() throws IOException {
+        if (!mFile.exists()) {
+            return null;
+        }
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer draft = ByteBuffer.allocate((int) channel.size());
+            while (draft.hasRemaining() && channel.read(draft) >= 0) {
+                // 读满为止
+            }
+            draft.flip();
+            return draft;
+        } finally {
+            in.close();
+        }
+    }
+
+    public void delete() {
+        mFile.delete();
+        mTmpFile.delete();
+    }
+}
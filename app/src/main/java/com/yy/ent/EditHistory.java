@@ -0,0 +1,397 @@
+package com.yy.ent;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * 撤销/重做记录
+ * <p>
+ * 每次编辑只记录变化的部分:位置、删除的文本、插入的文本,以及被删除/新加入的@好友,
+ * 不保存整段文本;@好友直接引用原对象,撤销后还是同一个@好友。
+ * 连续输入、连续退格会合并成一条记录,输入在单词结束(空白之后)处断开
+ * <p>
+ * 记录占用的内存按字符数估算,超出预算时丢弃最早的记录;丢弃的记录留一小部分循环使用,
+ * 连续输入合并到已有记录时不分配对象,新建记录时优先复用
+ * <p>
+ * {@link #setSilent(boolean)}期间的修改(如占位名字换成真实名字)不作为撤销步骤,
+ * 而是并入插入这段文本的那条记录,之前的记录按修改的长度变化平移
+ */
+public class EditHistory {
+    public static final int DEFAULT_MEMORY_BUDGET = 256 * 1024;
+    private static final int MAX_MERGE_LENGTH = 64;// 合并后单条记录最多的字符数
+    private static final int EDIT_OVERHEAD = 48;// 每条记录本身估算的字节数
+    private static final int MENTION_OVERHEAD = 16;// 每个@好友引用估算的字节数
+    private static final int MAX_POOL_SIZE = 8;// 最多保留多少条丢弃的记录用于复用
+
+    /**
+     * 撤销/重做时修改的对象,修改文本时{@link EditHistory}不会再记录
+     */
+    public interface Target {
+        void replace(int start, int end, CharSequence text);
+
+        void addMention(XlpsFriend xlpsFriend, int start, int end);
+
+        void setSelection(int offset);
+    }
+
+    /**
+     * 一次编辑:[mStart, mStart + mRemoved.length())被替换为mInserted,@好友位置相对mStart
+     */
+    private static final class Edit {
+        int mStart;
+        final StringBuilder mRemoved = new StringBuilder();
+        final StringBuilder mInserted = new StringBuilder();
+        MentionIndex<XlpsFriend> mRemovedMentions;
+        MentionIndex<XlpsFriend> mAddedMentions;
+
+        /**
+         * 清空内容以便复用,保留StringBuilder已分配的空间
+         */
+        void reset(int start) {
+            mStart = start;
+            mRemoved.setLength(0);
+            mInserted.setLength(0);
+            mRemovedMentions = null;
+            mAddedMentions = null;
+        }
+
+        boolean hasMentions() {
+            return mRemovedMentions != null || mAddedMentions != null;
+        }
+
+        int cost() {
+            int mentions = (mRemovedMentions != null ? mRemovedMentions.size() : 0)
+                    + (mAddedMentions != null ? mAddedMentions.size() : 0);
+            return EDIT_OVERHEAD + 2 * (mRemoved.length() + mInserted.length()) + MENTION_OVERHEAD * mentions;
+        }
+    }
+
+    private final ArrayDeque<Edit> mUndo = new ArrayDeque<Edit>();
+    private final ArrayDeque<Edit> mRedo = new ArrayDeque<Edit>();
+    private final ArrayDeque<Edit> mPool = new ArrayDeque<Edit>(MAX_POOL_SIZE);// 丢弃后可复用的记录
+    private int mMemoryBudget;
+    private int mMemoryUsage;
+    private Edit mCurrent;// beforeChange与afterChange之间正在记录的编辑
+    private Edit mScratch;// 用来记录每次编辑,合并到已有记录时下次继续使用
+    private boolean mApplying;// 正在撤销/重做,不记录
+    private boolean mMergeable;// 最后一条记录是否还可以合并
+    private boolean mSilent;// 修改不作为撤销步骤,并入已有记录
+    // 即将随文本一起删除、但已经先从索引移除的@好友
+    private XlpsFriend mRemovedFriend;
+    private int mRemovedStart;
+    private int mRemovedEnd;
+
+    public EditHistory() {
+        this(DEFAULT_MEMORY_BUDGET);
+    }
+
+    public EditHistory(int memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    public void setMemoryBudget(int memoryBudget) {
+        mMemoryBudget = memoryBudget;
+        trim();
+    }
+
+    /**
+     * 记录占用内存的估算值(字节)
+     */
+    public int getMemoryUsage() {
+        return mMemoryUsage;
+    }
+
+    public boolean canUndo() {
+        return !mUndo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !mRedo.isEmpty();
+    }
+
+    public int getUndoCount() {
+        return mUndo.size();
+    }
+
+    public void clear() {
+        freeAll(mUndo);
+        freeAll(mRedo);
+        mMemoryUsage = 0;
+        mCurrent = null;
+        mMergeable = false;
+        mRemovedFriend = null;
+    }
+
+    /**
+     * 设置之后的修改是否作为撤销步骤,为true时修改并入已有的记录,重做记录被清空
+     */
+    public void setSilent(boolean silent) {
+        mSilent = silent;
+    }
+
+    /**
+     * 文本[start, start + count)即将被替换,此时index还是替换前的位置
+     */
+    public void beforeChange(CharSequence text, int start, int count, MentionIndex<XlpsFriend> index) {
+        if (mApplying) {
+            return;
+        }
+        if (mScratch == null) {
+            mScratch = obtain();
+        }
+        Edit edit = mScratch;
+        edit.reset(start);
+        edit.mRemoved.append(text, start, start + count);
+        if (count > 0) {
+            int end = start + count;
+            for (int i = index.lowerBound(start); i < index.size() && index.end(i) <= end; i++) {
+                edit.mRemovedMentions = addRelative(edit.mRemovedMentions, index.get(i),
+                        index.start(i) - start, index.end(i) - start);
+            }
+            if (mRemovedFriend != null && mRemovedStart >= start && mRemovedEnd <= end) {
+                edit.mRemovedMentions = addRelative(edit.mRemovedMentions, mRemovedFriend,
+                        mRemovedStart - start, mRemovedEnd - start);
+            }
+        }
+        mRemovedFriend = null;
+        mCurrent = edit;
+    }
+
+    /**
+     * 文本[start, start + before)已被替换为[start, start + count)
+     */
+    public void afterChange(CharSequence text, int start, int before, int count) {
+        Edit edit = mCurrent;
+        mCurrent = null;
+        if (mApplying || edit == null || edit.mStart != start || edit.mRemoved.length() != before) {
+            return;
+        }
+        if (before == 0 && count == 0) {
+            return;
+        }
+        edit.mInserted.append(text, start, start + count);
+        freeAll(mRedo);
+        if (mSilent) {
+            rebase(edit);
+            mMergeable = false;
+            return;
+        }
+        if (!merge(edit)) {
+            // 记录本身保存下来,下次编辑换一个
+            mScratch = null;
+            mUndo.addLast(edit);
+            mMemoryUsage += edit.cost();
+        }
+        mMergeable = true;
+        trim();
+    }
+
+    /**
+     * 最近一次插入的文本里加入了@好友
+     */
+    public void mentionAdded(XlpsFriend xlpsFriend, int start, int end) {
+        Edit edit = mUndo.peekLast();
+        if (mApplying || mSilent || edit == null) {
+            return;
+        }
+        int relativeStart = start - edit.mStart;
+        int relativeEnd = end - edit.mStart;
+        if (relativeStart >= 0 && relativeEnd <= edit.mInserted.length()) {
+            mMemoryUsage -= edit.cost();
+            edit.mAddedMentions = addRelative(edit.mAddedMentions, xlpsFriend, relativeStart, relativeEnd);
+            mMemoryUsage += edit.cost();
+            mMergeable = false;
+        }
+    }
+
+    /**
+     * @好友已从索引移除,接下来会删除[start, end)的文本,例如删除键整体删除@好友
+     */
+    public void mentionRemoved(XlpsFriend xlpsFriend, int start, int end) {
+        if (!mApplying) {
+            mRemovedFriend = xlpsFriend;
+            mRemovedStart = start;
+            mRemovedEnd = end;
+        }
+    }
+
+    /**
+     * 撤销最近一次编辑,删除的@好友恢复为正常状态
+     *
+     * @return 是否有可以撤销的编辑
+     */
+    public boolean undo(Target target) {
+        Edit edit = mUndo.pollLast();
+        if (edit == null) {
+            return false;
+        }
+        apply(target, edit.mStart, edit.mInserted, edit.mRemoved, edit.mRemovedMentions);
+        mRedo.addLast(edit);
+        mMergeable = false;
+        return true;
+    }
+
+    /**
+     * 重做最近一次撤销的编辑
+     *
+     * @return 是否有可以重做的编辑
+     */
+    public boolean redo(Target target) {
+        Edit edit = mRedo.pollLast();
+        if (edit == null) {
+            return false;
+        }
+        apply(target, edit.mStart, edit.mRemoved, edit.mInserted, edit.mAddedMentions);
+        mUndo.addLast(edit);
+        mMergeable = false;
+        return true;
+    }
+
+    private void apply(Target target, int start, CharSequence from, CharSequence to,
+                       MentionIndex<XlpsFriend> mentions) {
+        mApplying = true;
+        try {
+            target.replace(start, start + from.length(), to);
+            if (mentions != null) {
+                for (int i = 0; i < mentions.size(); i++) {
+                    XlpsFriend xlpsFriend = mentions.get(i);
+                    xlpsFriend.mFlag = XlpsFriend.FLAG_NORMAL;
+                    target.addMention(xlpsFriend, start + mentions.start(i), start + mentions.end(i));
+                }
+            }
+            target.setSelection(start + to.length());
+        } finally {
+            mApplying = false;
+        }
+    }
+
+    /**
+     * 把不作为撤销步骤的修改从最近的记录往前移:修改在记录之前则记录平移,在记录之后则换算成记录之前的位置,
+     * 在记录插入的文本之内则直接修改插入的文本;和记录部分重叠时无法合并,清空所有记录
+     */
+    private void rebase(Edit change) {
+        int start = change.mStart;
+        int removed = change.mRemoved.length();
+        int delta = change.mInserted.length() - removed;
+        Iterator<Edit> iterator = mUndo.descendingIterator();
+        while (iterator.hasNext()) {
+            Edit edit = iterator.next();
+            int editEnd = edit.mStart + edit.mInserted.length();
+            if (start + removed <= edit.mStart) {
+                edit.mStart += delta;
+            } else if (start >= editEnd) {
+                start -= edit.mInserted.length() - edit.mRemoved.length();
+            } else if (start >= edit.mStart && start + removed <= editEnd) {
+                mMemoryUsage -= edit.cost();
+                int relative = start - edit.mStart;
+                edit.mInserted.replace(relative, relative + removed, change.mInserted.toString());
+                edit.mAddedMentions = shiftMentions(edit.mAddedMentions, relative, removed, delta);
+                mMemoryUsage += edit.cost();
+                return;
+            } else {
+                freeAll(mUndo);
+                return;
+            }
+        }
+    }
+
+    /**
+     * [start, start + removed)处长度变化了delta后的@好友位置,正好是这段文本的@好友(被改名)随之伸缩
+     */
+    private static MentionIndex<XlpsFriend> shiftMentions(MentionIndex<XlpsFriend> mentions, int start, int removed,
+                                                          int delta) {
+        if (mentions == null || delta == 0) {
+            return mentions;
+        }
+        MentionIndex<XlpsFriend> shifted = new MentionIndex<XlpsFriend>();
+        for (int i = 0; i < mentions.size(); i++) {
+            int mentionStart = mentions.start(i);
+            int mentionEnd = mentions.end(i);
+            if (mentionStart >= start + removed) {
+                mentionStart += delta;
+            }
+            if (mentionEnd >= start + removed) {
+                mentionEnd += delta;
+            }
+            shifted.add(mentions.get(i), mentionStart, mentionEnd);
+        }
+        return shifted;
+    }
+
+    /**
+     * 连续输入追加到上一条记录,连续退格合并到上一条记录前面
+     */
+    private boolean merge(Edit edit) {
+        Edit last = mUndo.peekLast();
+        if (!mMergeable || last == null || edit.hasMentions() || last.hasMentions()) {
+            return false;
+        }
+        int removed = edit.mRemoved.length();
+        int inserted = edit.mInserted.length();
+        if (removed == 0 && last.mRemoved.length() == 0
+                && last.mStart + last.mInserted.length() == edit.mStart
+                && last.mInserted.length() + inserted <= MAX_MERGE_LENGTH
+                && !endsWord(last.mInserted, edit.mInserted)) {
+            last.mInserted.append(edit.mInserted);
+            mMemoryUsage += 2 * inserted;
+            return true;
+        }
+        if (inserted == 0 && last.mInserted.length() == 0
+                && edit.mStart + removed == last.mStart
+                && last.mRemoved.length() + removed <= MAX_MERGE_LENGTH) {
+            last.mStart = edit.mStart;
+            last.mRemoved.insert(0, edit.mRemoved);
+            mMemoryUsage += 2 * removed;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 上一段输入以空白结束、新输入不是空白,即开始了新的单词
+     */
+    private static boolean endsWord(CharSequence last, CharSequence next) {
+        return last.length() > 0 && Character.isWhitespace(last.charAt(last.length() - 1))
+                && next.length() > 0 && !Character.isWhitespace(next.charAt(0));
+    }
+
+    private static MentionIndex<XlpsFriend> addRelative(MentionIndex<XlpsFriend> mentions, XlpsFriend xlpsFriend,
+                                                        int start, int end) {
+        if (mentions == null) {
+            mentions = new MentionIndex<XlpsFriend>();
+        }
+        mentions.add(xlpsFriend, start, end);
+        return mentions;
+    }
+
+    private void freeAll(ArrayDeque<Edit> edits) {
+        Edit edit;
+        while ((edit = edits.pollFirst()) != null) {
+            mMemoryUsage -= edit.cost();
+            recycle(edit);
+        }
+    }
+
+    private Edit obtain() {
+        Edit edit = mPool.pollLast();
+        return edit != null ? edit : new Edit();
+    }
+
+    private void recycle(Edit edit) {
+        if (mPool.size() < MAX_POOL_SIZE) {
+            edit.reset(0);
+            mPool.addLast(edit);
+        }
+    }
+
+    /**
+     * 超出预算时先丢弃最早的撤销记录,再丢弃最远的重做记录,最近一条总是保留
+     */
+    private void trim() {
+        while (mMemoryUsage > mMemoryBudget && mUndo.size() + mRedo.size() > 1) {
+            Edit edit = !mUndo.isEmpty() ? mUndo.pollFirst() : mRedo.pollFirst();
+            mMemoryUsage -= edit.cost();
+            recycle(edit);
+        }
+    }
+}
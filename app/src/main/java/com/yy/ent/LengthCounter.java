@@ -0,0 +1,52 @@
+package com.yy.ent;
+
+/**
+ * 按{@link LengthPolicy}增量维护文本长度
+ * <p>
+ * 每次编辑只重新计算编辑位置两侧最近的安全边界({@link LengthPolicy#isSafeBoundary})之间的一小段,
+ * 不重新遍历整段文本;普通文字两侧紧挨着就是安全边界,连续的组合表情/国旗才会扩大计算范围
+ */
+public class LengthCounter {
+    private final LengthPolicy mPolicy;
+    private int mLength;
+    // beforeTextChanged时记录的待重新计算区域及其原长度
+    private int mWindowStart;
+    private int mWindowEnd;
+    private int mWindowLength;
+
+    public LengthCounter(LengthPolicy policy) {
+        mPolicy = policy;
+    }
+
+    public LengthPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * 重新计算整段文本的长度
+     */
+    public void reset(CharSequence text) {
+        mLength = mPolicy.measure(text);
+    }
+
+    /**
+     * 文本[start, start + count)即将被替换
+     */
+    public void beforeTextChanged(CharSequence text, int start, int count) {
+        mWindowStart = LengthPolicy.safeBoundaryBefore(text, start);
+        mWindowEnd = LengthPolicy.safeBoundaryAfter(text, start + count);
+        mWindowLength = mPolicy.measure(text, mWindowStart, mWindowEnd);
+    }
+
+    /**
+     * 文本[start, start + before)已被替换为count个字符
+     */
+    public void onTextChanged(CharSequence text, int start, int before, int count) {
+        int windowEnd = Math.min(text.length(), mWindowEnd - before + count);
+        mLength += mPolicy.measure(text, mWindowStart, windowEnd) - mWindowLength;
+    }
+}
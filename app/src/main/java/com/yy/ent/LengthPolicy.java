@@ -0,0 +1,200 @@
+package com.yy.ent;
+
+/**
+ * 文本长度的计算方式
+ * <p>
+ * 除了按UTF-16字符计数,还可以按码点、按字素(用户看到的一个字符,如带肤色的表情、国旗、ZWJ组合表情)
+ * 或按字素加权(中日韩文字和表情算2,其他算1)计数。字素切分是简化的扩展字素规则:
+ * 组合符号、变体选择符、肤色修饰符、标签字符附在前一个字符上,ZWJ连接前后两个字符,区域指示符两两组成国旗
+ * <p>
+ * 截断文本时({@link #fit(CharSequence, int, int, int)})无论哪种计数方式都只在字素边界截断
+ */
+public final class LengthPolicy {
+    public static final int UNIT_CODE_UNITS = 0;// UTF-16字符
+    public static final int UNIT_CODE_POINTS = 1;// 码点
+    public static final int UNIT_GRAPHEMES = 2;// 字素
+    public static final int UNIT_WEIGHTED = 3;// 字素,中日韩文字和表情算2
+
+    public static final LengthPolicy CODE_UNITS = new LengthPolicy(UNIT_CODE_UNITS);
+    public static final LengthPolicy CODE_POINTS = new LengthPolicy(UNIT_CODE_POINTS);
+    public static final LengthPolicy GRAPHEMES = new LengthPolicy(UNIT_GRAPHEMES);
+    public static final LengthPolicy WEIGHTED = new LengthPolicy(UNIT_WEIGHTED);
+
+    private static final int ZWJ = 0x200D;
+
+    private final int mUnit;
+
+    private LengthPolicy(int unit) {
+        mUnit = unit;
+    }
+
+    public int getUnit() {
+        return mUnit;
+    }
+
+    public int measure(CharSequence text) {
+        return measure(text, 0, text.length());
+    }
+
+    /**
+     * text[start, end)的长度,start需要在字素边界上
+     */
+    public int measure(CharSequence text, int start, int end) {
+        switch (mUnit) {
+            case UNIT_CODE_UNITS:
+                return end - start;
+            case UNIT_CODE_POINTS:
+                return Character.codePointCount(text, start, end);
+            default:
+                int length = 0;
+                for (int i = start; i < end; ) {
+                    int next = nextBoundary(text, i, end);
+                    length += weightOf(text, i);
+                    i = next;
+                }
+                return length;
+        }
+    }
+
+    /**
+     * text[start, end)中不超过maxLength的最长前缀,只在字素边界截断
+     *
+     * @return 前缀的结束位置
+     */
+    public int fit(CharSequence text, int start, int end, int maxLength) {
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            int next = nextBoundary(text, i, end);
+            switch (mUnit) {
+                case UNIT_CODE_UNITS:
+                    length += next - i;
+                    break;
+                case UNIT_CODE_POINTS:
+                    length += Character.codePointCount(text, i, next);
+                    break;
+                default:
+                    length += weightOf(text, i);
+                    break;
+            }
+            if (length > maxLength) {
+                break;
+            }
+            i = next;
+        }
+        return i;
+    }
+
+    /**
+     * 从字素边界start开始的下一个字素边界
+     */
+    public static int nextBoundary(CharSequence text, int start, int end) {
+        int cp = Character.codePointAt(text, start);
+        int i = start + Character.charCount(cp);
+        if (cp == '\r') {
+            return i < end && text.charAt(i) == '\n' ? i + 1 : i;
+        }
+        boolean pendingFlag = isRegionalIndicator(cp);
+        boolean joined = cp == ZWJ;
+        while (i < end) {
+            int next = Character.codePointAt(text, i);
+            if (joined && next != '\r' && next != '\n') {
+                joined = false;
+            } else if (pendingFlag && isRegionalIndicator(next)) {
+                pendingFlag = false;
+            } else if (isExtend(next) || next == ZWJ) {
+                joined = next == ZWJ;
+            } else {
+                break;
+            }
+            i += Character.charCount(next);
+        }
+        return i;
+    }
+
+    /**
+     * position前后都与其他位置的切分无关:前面的码点不会与后面连接,后面的码点也不会附在前面
+     * 修改这样的位置两侧之外的文本,不会改变两侧之间的切分
+     */
+    static boolean isSafeBoundary(CharSequence text, int position) {
+        if (position <= 0 || position >= text.length()) {
+            return true;
+        }
+        char c = text.charAt(position);
+        if (Character.isLowSurrogate(c)) {
+            return false;
+        }
+        int before = Character.codePointBefore(text, position);
+        int at = Character.codePointAt(text, position);
+        if (before == ZWJ || isRegionalIndicator(before) || isRegionalIndicator(at)
+                || isExtend(at) || at == ZWJ) {
+            return false;
+        }
+        return !(before == '\r' && at == '\n');
+    }
+
+    /**
+     * start之前(不包含start处)最近的安全边界,其后的码点完全在start之前
+     */
+    static int safeBoundaryBefore(CharSequence text, int start) {
+        for (int p = start - 1; p > 0; p--) {
+            if (isSafeBoundary(text, p) && p + Character.charCount(Character.codePointAt(text, p)) <= start) {
+                return p;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * end之后(不包含end处)最近的安全边界,其前的码点完全在end之后
+     */
+    static int safeBoundaryAfter(CharSequence text, int end) {
+        int length = text.length();
+        for (int q = end + 1; q < length; q++) {
+            if (isSafeBoundary(text, q) && q - Character.charCount(Character.codePointBefore(text, q)) >= end) {
+                return q;
+            }
+        }
+        return length;
+    }
+
+    private int weightOf(CharSequence text, int clusterStart) {
+        if (mUnit != UNIT_WEIGHTED) {
+            return 1;
+        }
+        return isWide(Character.codePointAt(text, clusterStart)) ? 2 : 1;
+    }
+
+    private static boolean isExtend(int cp) {
+        if (cp >= 0xFE00 && cp <= 0xFE0F // 变体选择符
+                || cp >= 0x1F3FB && cp <= 0x1F3FF // 肤色修饰符
+                || cp >= 0xE0020 && cp <= 0xE007F // 标签字符(如苏格兰旗)
+                || cp >= 0xE0100 && cp <= 0xE01EF
+                || cp == 0x20E3) { // 键帽
+            return true;
+        }
+        int type = Character.getType(cp);
+        return type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+
+    private static boolean isRegionalIndicator(int cp) {
+        return cp >= 0x1F1E6 && cp <= 0x1F1FF;
+    }
+
+    /**
+     * 中日韩文字、全角字符和表情
+     */
+    private static boolean isWide(int cp) {
+        return cp >= 0x1100 && cp <= 0x115F // 谚文字母
+                || cp >= 0x2E80 && cp <= 0xA4CF // 中日韩部首、假名、汉字、彝文
+                || cp >= 0xAC00 && cp <= 0xD7A3 // 谚文音节
+                || cp >= 0xF900 && cp <= 0xFAFF // 兼容汉字
+                || cp >= 0xFE30 && cp <= 0xFE4F
+                || cp >= 0xFF00 && cp <= 0xFF60 // 全角字符
+                || cp >= 0xFFE0 && cp <= 0xFFE6
+                || cp >= 0x1F000 && cp <= 0x1FAFF // 表情、国旗
+                || cp >= 0x2600 && cp <= 0x27BF // 杂项符号
+                || cp >= 0x20000 && cp <= 0x3FFFD; // 扩展汉字
+    }
+}
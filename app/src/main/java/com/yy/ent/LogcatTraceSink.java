@@ -0,0 +1,31 @@
+package com.yy.ent;
+
+import android.util.Log;
+
+/**
+ * 把{@link MentionTrace}事件输出到logcat,一般只在debug包中设置
+ * <pre>
+ * MentionTrace.setSink(new LogcatTraceSink(), MentionTrace.LEVEL_DEBUG);
+ * </pre>
+ */
+public class LogcatTraceSink implements MentionTrace.Sink {
+    private final String mTag;
+
+    public LogcatTraceSink() {
+        this(RichEditText.class.getSimpleName());
+    }
+
+    public LogcatTraceSink(String tag) {
+        mTag = tag;
+    }
+
+    @Override
+    public void onEvent(int level, String event, int arg0, int arg1, int arg2) {
+        String message = event + " " + arg0 + "," + arg1 + "," + arg2;
+        if (level == MentionTrace.LEVEL_INFO) {
+            Log.i(mTag, message);
+        } else {
+            Log.d(mTag, message);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.yy.ent;
+
+import java.util.Arrays;
+
+/**
+ * long的哈希集合,开放寻址,不装箱
+ * <p>
+ * 同一个值可以加入多次(例如粘贴了重复的@好友),要删除同样次数才会从集合中消失
+ */
+public class LongHashSet {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] mKeys;
+    private int[] mCounts;// 0表示空位
+    private int mSize;
+
+    public LongHashSet() {
+        mKeys = new long[DEFAULT_CAPACITY];
+        mCounts = new int[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * 不同值的个数
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean contains(long key) {
+        return mCounts[find(key)] > 0;
+    }
+
+    public void add(long key) {
+        int slot = find(key);
+        if (mCounts[slot] == 0) {
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mCounts[slot]++;
+        if (mSize * 4 > mKeys.length * 3) {
+            resize(mKeys.length * 2);
+        }
+    }
+
+    /**
+     * @return 值是否还在集合中
+     */
+    public boolean remove(long key) {
+        int slot = find(key);
+        if (mCounts[slot] == 0) {
+            return false;
+        }
+        if (--mCounts[slot] > 0) {
+            return true;
+        }
+        mSize--;
+        // 后面同一探测链上的值前移,保证查找不会提前遇到空位
+        int mask = mKeys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; mCounts[i] != 0; i = (i + 1) & mask) {
+            int home = hash(mKeys[i]) & mask;
+            // home不在(hole, i]之间才能移到hole
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                mKeys[hole] = mKeys[i];
+                mCounts[hole] = mCounts[i];
+                mCounts[i] = 0;
+                hole = i;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        Arrays.fill(mCounts, 0);
+        mSize = 0;
+    }
+
+    /**
+     * key所在的位置,不存在则是应该插入的空位
+     */
+    private int find(long key) {
+        int mask = mKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (mCounts[slot] != 0 && mKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] keys = mKeys;
+        int[] counts = mCounts;
+        mKeys = new long[capacity];
+        mCounts = new int[capacity];
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                int slot = find(keys[i]);
+                mKeys[slot] = keys[i];
+                mCounts[slot] = counts[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
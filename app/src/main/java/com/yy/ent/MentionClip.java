@@ -0,0 +1,118 @@
+package com.yy.ent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 复制/剪切时保存的@好友快照:纯文本和位置相对文本的@好友副本
+ * <p>
+ * 剪贴板条目的文本是纯文本,@好友编码成{@link #encode()}的字符串放在同一条目的Intent中,
+ * 随剪贴板跨进程传递;其他应用粘贴只取条目的文本。粘贴时解码后文本和每个@好友的位置都对得上才还原@好友
+ */
+final class MentionClip {
+    static final String MIME_TYPE = "text/vnd.yy.ent.mention";
+    static final String EXTRA_MENTIONS = "com.yy.ent.extra.MENTIONS";// 剪贴板条目Intent中编码后的快照
+    private static final int VERSION = 1;
+
+    private final String mText;
+    private final MentionIndex<XlpsFriend> mMentions = new MentionIndex<XlpsFriend>();
+
+    private MentionClip(String text) {
+        mText = text;
+    }
+
+    /**
+     * 复制text的[start, end),只保留完全在其中的@好友
+     */
+    static MentionClip snapshot(CharSequence text, MentionIndex<XlpsFriend> index, int start, int end) {
+        MentionClip clip = new MentionClip(text.subSequence(start, end).toString());
+        for (int i = index.lowerBound(start); i < index.size() && index.end(i) <= end; i++) {
+            XlpsFriend xlpsFriend = index.get(i).copy();
+            xlpsFriend.mFlag = XlpsFriend.FLAG_NORMAL;
+            xlpsFriend.startPos = index.start(i) - start;
+            xlpsFriend.endPos = index.end(i) - start;
+            clip.mMentions.add(xlpsFriend, xlpsFriend.startPos, xlpsFriend.endPos);
+        }
+        return clip;
+    }
+
+    /**
+     * 编码成放进剪贴板的字符串
+     */
+    String encode() {
+        try {
+            JSONArray mentions = new JSONArray();
+            for (int i = 0; i < mMentions.size(); i++) {
+                mentions.put(mMentions.get(i).getJsonObject());
+            }
+            JSONObject json = new JSONObject();
+            json.put("version", VERSION);
+            json.put("text", mText);
+            json.put("mentions", mentions);
+            return json.toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 解码剪贴板中的快照
+     *
+     * @param text 剪贴板条目的纯文本,与快照不一致(如被其他应用改写)时不还原
+     * @return 快照, 格式不对或与text不一致返回null
+     */
+    static MentionClip decode(String encoded, CharSequence text) {
+        if (encoded == null || text == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(encoded);
+            if (json.optInt("version") != VERSION || !json.getString("text").contentEquals(text)) {
+                return null;
+            }
+            MentionClip clip = new MentionClip(json.getString("text"));
+            JSONArray mentions = json.getJSONArray("mentions");
+            int prevEnd = 0;
+            for (int i = 0; i < mentions.length(); i++) {
+                XlpsFriend xlpsFriend = XlpsFriend.parseJSONObject(mentions.getJSONObject(i));
+                xlpsFriend.mFlag = XlpsFriend.FLAG_NORMAL;
+                int start = xlpsFriend.startPos;
+                int end = xlpsFriend.endPos;
+                // 按位置排序、不重叠,且文本就是@好友的文本
+                if (start < prevEnd || end <= start || end > clip.mText.length()
+                        || !clip.mText.regionMatches(start, xlpsFriend.mUserName, 0, end - start)
+                        || xlpsFriend.mUserName.length() != end - start) {
+                    return null;
+                }
+                clip.mMentions.add(xlpsFriend, start, end);
+                prevEnd = end;
+            }
+            return clip;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    String getText() {
+        return mText;
+    }
+
+    /**
+     * 快照中@好友的新副本,每次粘贴都是独立的对象
+     */
+    MentionIndex<XlpsFriend> copyMentions() {
+        MentionIndex<XlpsFriend> mentions = new MentionIndex<XlpsFriend>();
+        for (int i = 0; i < mMentions.size(); i++) {
+            XlpsFriend xlpsFriend = mMentions.get(i).copy();
+            xlpsFriend.startPos = mMentions.start(i);
+            xlpsFriend.endPos = mMentions.end(i);
+            mentions.add(xlpsFriend, mMentions.start(i), mMentions.end(i));
+        }
+        return mentions;
+    }
+
+    int getMentionCount() {
+        return mMentions.size();
+    }
+}
@@ -0,0 +1,148 @@
+package com.yy.ent;
+
+/**
+ * @好友整体删除的状态机
+ * <p>
+ * 光标紧挨在@好友后面时,第一次删除只标记并高亮@好友,第二次删除才删除整个@好友:
+ * <pre>
+ * IDLE --删除,光标前是@好友--> MARKED
+ * MARKED --删除--> CLEARING --删除完成--> IDLE
+ * MARKED --点击/光标移开/其他编辑--> IDLE
+ * </pre>
+ * 被标记的@好友和它的位置直接保存在状态中,不遍历索引;删除键和输入法的deleteSurroundingText都走这里
+ */
+public class MentionDeleteController {
+    public static final int STATE_IDLE = 0;// 没有标记
+    public static final int STATE_MARKED = 1;// 已标记,等待第二次删除
+    public static final int STATE_CLEARING = 2;// 正在删除标记的@好友
+
+    /**
+     * 状态变化时对输入框的操作
+     */
+    public interface Host {
+        /**
+         * 高亮被标记的@好友
+         */
+        void showMark(XlpsFriend xlpsFriend, int start, int end);
+
+        /**
+         * 取消高亮
+         */
+        void hideMark(XlpsFriend xlpsFriend);
+
+        /**
+         * 从索引删除slot处的@好友,并删除文本[start, end)
+         */
+        void deleteMention(int slot, int start, int end);
+    }
+
+    private final MentionEngine mEngine;
+    private final Host mHost;
+    private int mState = STATE_IDLE;
+    private XlpsFriend mTarget;// 被标记的@好友
+    private int mTargetEnd;// 标记时@好友的结束位置,标记期间有编辑就会取消标记,所以位置不变
+
+    public MentionDeleteController(MentionEngine engine, Host host) {
+        mEngine = engine;
+        mHost = host;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    /**
+     * 被标记的@好友,没有返回null
+     */
+    public XlpsFriend getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * 删除光标前的一个字符(删除键或输入法删除)
+     *
+     * @return 是否已处理, false则按普通字符删除
+     */
+    public boolean onDelete(int selStart, int selEnd) {
+        if (mState == STATE_MARKED) {
+            return clearTarget();
+        }
+        if (mState != STATE_IDLE || selStart != selEnd) {
+            return false;
+        }
+        int slot = mEngine.markEndingAt(selStart);
+        if (slot < 0) {
+            return false;
+        }
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        mTarget = index.get(slot);
+        mTargetEnd = index.end(slot);
+        mState = STATE_MARKED;
+        MentionTrace.debug("mention_mark", slot, index.start(slot), mTargetEnd);
+        mHost.showMark(mTarget, index.start(slot), mTargetEnd);
+        return true;
+    }
+
+    /**
+     * 光标/选区变化,离开被标记的@好友后取消标记
+     */
+    public void onSelectionChanged(int selStart, int selEnd) {
+        if (mState == STATE_MARKED && (selStart != mTargetEnd || selEnd != mTargetEnd)) {
+            cancel();
+        }
+    }
+
+    /**
+     * 文本变化,不是删除标记的@好友引起的都取消标记
+     */
+    public void onTextChanged() {
+        if (mState == STATE_MARKED) {
+            cancel();
+        }
+    }
+
+    /**
+     * 取消标记,例如点击输入框
+     */
+    public void cancel() {
+        if (mState != STATE_MARKED) {
+            return;
+        }
+        XlpsFriend target = mTarget;
+        reset();
+        mEngine.unmark();
+        // 已经不在索引中的@好友引擎不再记录,直接恢复标志
+        if (target.mFlag == XlpsFriend.FLAG_MARK) {
+            target.mFlag = XlpsFriend.FLAG_NORMAL;
+        }
+        MentionTrace.debug("mention_unmark", 0, 0, 0);
+        mHost.hideMark(target);
+    }
+
+    private boolean clearTarget() {
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        int slot = index.findEndingAt(mTargetEnd);
+        if (slot < 0 || index.get(slot) != mTarget) {
+            // 标记期间的编辑都会取消标记,正常情况下不会走到这里;位置对不上时取消标记,按普通字符删除
+            cancel();
+            return false;
+        }
+        int start = index.start(slot);
+        int end = index.end(slot);
+        mTarget.mFlag = XlpsFriend.FLAG_CLEAR;
+        mState = STATE_CLEARING;
+        MentionTrace.info("mention_clear", slot, start, end);
+        try {
+            mHost.deleteMention(slot, start, end);
+        } finally {
+            reset();
+        }
+        return true;
+    }
+
+    private void reset() {
+        mState = STATE_IDLE;
+        mTarget = null;
+        mTargetEnd = -1;
+    }
+}
@@ -0,0 +1,483 @@
+package com.yy.ent;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 与Android无关的@好友编辑逻辑
+ * <p>
+ * 只依赖文本内容和编辑事件(位置、删除长度、插入长度),可以直接在JVM上测试和做性能基准,
+ * 也可以在服务端用来校验内容;RichEditText只负责把EditText的事件转给这里并更新界面
+ * <p>
+ * 包括:@好友位置随编辑平移、整体删除(先标记再删除)、光标不能停在@好友中间、生成"@用户id "文本
+ */
+public class MentionEngine {
+    private MentionIndex<XlpsFriend> mIndex;
+    private MentionRules mRules = MentionRules.users(0);// 支持的实体规则,决定序列化前缀
+    private XlpsFriend mPending;// 正在插入文本的@好友,文本插入完成后加入索引
+    private final StringBuilder mBuffer = new StringBuilder();// 生成"@用户id "文本的缓冲区
+    private final char[] mDigits = new char[20];// 用户id的各位数字
+    private final char[] mChunk = new char[256];// 写入Writer时分段复制原文本
+    private final MentionKeySet mKeys = new MentionKeySet();// 索引中所有实体按规则分组的id,与索引同步增删
+    private XlpsFriend mFlagged;// 索引中被标记删除(FLAG_MARK/FLAG_CLEAR)的@好友,同一时间最多一个
+    private final MentionIndex.Listener<XlpsFriend> mIndexListener = new MentionIndex.Listener<XlpsFriend>() {
+        @Override
+        public void onAdded(XlpsFriend item) {
+            mKeys.add(item.mRule, item.mUserId);
+            if (item.mFlag != XlpsFriend.FLAG_NORMAL) {
+                mFlagged = item;
+            }
+        }
+
+        @Override
+        public void onRemoved(XlpsFriend item) {
+            mKeys.remove(item.mRule, item.mUserId);
+            if (item == mFlagged) {
+                mFlagged = null;
+            }
+        }
+    };
+
+    public MentionEngine() {
+        this(new MentionIndex<XlpsFriend>());
+    }
+
+    public MentionEngine(MentionIndex<XlpsFriend> index) {
+        setIndex(index);
+    }
+
+    public MentionIndex<XlpsFriend> getIndex() {
+        return mIndex;
+    }
+
+    public void setIndex(MentionIndex<XlpsFriend> index) {
+        if (mIndex != null) {
+            mIndex.setListener(null);
+        }
+        mIndex = index;
+        mKeys.clear();
+        mFlagged = null;
+        for (int i = 0; i < index.size(); i++) {
+            mIndexListener.onAdded(index.get(i));
+        }
+        index.setListener(mIndexListener);
+    }
+
+    public MentionRules getRules() {
+        return mRules;
+    }
+
+    public void setRules(MentionRules rules) {
+        mRules = rules;
+    }
+
+    /**
+     * 文本[start, start + count)即将被替换为after个字符
+     *
+     * @return 删除的@好友个数
+     */
+    public int beforeTextChanged(int start, int count, int after) {
+        if (mIndex.isEmpty() || count == 0) {
+            return 0;
+        }
+        return mIndex.beforeReplace(start, count, after);
+    }
+
+    /**
+     * 文本[start, start + before)已被替换为count个字符
+     *
+     * @return 删除的@好友个数
+     */
+    public int onTextChanged(int start, int before, int count) {
+        if (mIndex.isEmpty() || (before == 0 && count == 0)) {
+            return 0;
+        }
+        return mIndex.replace(start, before, count);
+    }
+
+    /**
+     * 把@好友拼成要插入的文本,并按插入位置设置startPos/endPos
+     *
+     * @param selectionStart 插入位置
+     * @return 要插入的文本, 规则或名字为空时返回null
+     */
+    public String prepareAtFriend(XlpsFriend object, int selectionStart) {
+        if (object == null || isEmpty(object.mUserName) || isEmpty(object.mRule)) {
+            return null;
+        }
+        // 拼接字符# %s #,并保存
+        String objectText = object.mRule + object.mUserName;
+        object.mUserName = objectText;
+        object.startPos = selectionStart;
+        object.endPos = selectionStart + objectText.length();
+        return objectText;
+    }
+
+    /**
+     * 名字还没获取到时显示的名字,即用户id
+     */
+    public static String placeholderName(long userId) {
+        return String.valueOf(userId);
+    }
+
+    /**
+     * 是否还显示着占位的名字,只有@好友的名字由用户名接口获取,其他规则的实体不算
+     */
+    public static boolean isPlaceholder(XlpsFriend object) {
+        return MentionRule.USER_TRIGGER.equals(object.mRule) && object.mUserName != null
+                && object.mUserName.equals(object.mRule + placeholderName(object.mUserId) + " ");
+    }
+
+    /**
+     * 准备把slot处@好友的名字替换为userName
+     * 之后把文本[start(slot), end(slot))替换为返回的文本,替换完成后{@link #commitPending()}重新加入索引
+     *
+     * @param maxGrowth 文本最多可以变长多少(UTF-16字符)
+     * @return 新的文本, 名字没有变化或超出长度返回null
+     */
+    public String prepareRename(int slot, String userName, int maxGrowth) {
+        return prepareRename(slot, userName, LengthPolicy.CODE_UNITS, maxGrowth);
+    }
+
+    /**
+     * 同{@link #prepareRename(int, String, int)},长度按policy计算
+     *
+     * @param maxGrowth 文本最多可以变长多少,按policy计数
+     */
+    public String prepareRename(int slot, String userName, LengthPolicy policy, int maxGrowth) {
+        if (isEmpty(userName)) {
+            return null;
+        }
+        XlpsFriend object = mIndex.get(slot);
+        String objectText = object.mRule + userName + " ";
+        int start = mIndex.start(slot);
+        if (objectText.equals(object.mUserName)
+                || policy.measure(objectText) - policy.measure(object.mUserName) > maxGrowth) {
+            return null;
+        }
+        object.mUserName = objectText;
+        object.startPos = start;
+        object.endPos = start + objectText.length();
+        mPending = object;
+        return objectText;
+    }
+
+    /**
+     * 设置即将插入文本的@好友,文本插入后调用{@link #commitPending()}加入索引
+     */
+    public void setPending(XlpsFriend object) {
+        mPending = object;
+    }
+
+    /**
+     * 把正在插入的@好友加入索引
+     *
+     * @return 加入的@好友, 没有返回null
+     */
+    public XlpsFriend commitPending() {
+        if (mPending == null) {
+            return null;
+        }
+        XlpsFriend object = mPending.copy();
+        mPending = null;
+        mIndex.add(object, object.startPos, object.endPos);
+        return object;
+    }
+
+    /**
+     * 同一规则、同一id的实体是否已经存在
+     */
+    public boolean isExistFriend(XlpsFriend xlpsFriend) {
+        return xlpsFriend != null && contains(xlpsFriend.mRule, xlpsFriend.mUserId);
+    }
+
+    /**
+     * 是否已经@过该用户
+     */
+    public boolean containsUser(long userId) {
+        return contains(MentionRule.USER_TRIGGER, userId);
+    }
+
+    public boolean contains(String rule, long id) {
+        return mKeys.contains(rule, id);
+    }
+
+    /**
+     * 该规则的实体个数
+     */
+    public int countOf(String rule) {
+        return mKeys.count(rule);
+    }
+
+    /**
+     * 过滤要粘贴到[start, end)的@好友:已经@过、重复或超过个数限制的不加入
+     * <p>
+     * 被粘贴覆盖的选中区域里的@好友替换后就不存在了,不算已存在,也不占个数
+     *
+     * @param mentions 粘贴内容里的@好友,位置相对粘贴内容
+     * @return 可以加入的@好友,位置不变
+     */
+    public MentionIndex<XlpsFriend> acceptPasted(MentionIndex<XlpsFriend> mentions, int start, int end, int maxCount) {
+        MentionKeySet replaced = new MentionKeySet();
+        int from = mIndex.lowerBound(start);
+        int to = mIndex.coveredEnd(from, end);
+        for (int i = from; i < to; i++) {
+            XlpsFriend xlpsFriend = mIndex.get(i);
+            replaced.add(xlpsFriend.mRule, xlpsFriend.mUserId);
+        }
+        MentionIndex<XlpsFriend> accepted = new MentionIndex<XlpsFriend>();
+        MentionKeySet keys = new MentionKeySet();// 本次接受的,按规则分别计算重复和个数
+        for (int i = 0; i < mentions.size(); i++) {
+            XlpsFriend xlpsFriend = mentions.get(i);
+            String rule = xlpsFriend.mRule;
+            long id = xlpsFriend.mUserId;
+            boolean exists = contains(rule, id) && !replaced.contains(rule, id);
+            if (exists || keys.contains(rule, id)
+                    || countOf(rule) - replaced.count(rule) + keys.count(rule) >= maxCount) {
+                continue;
+            }
+            keys.add(rule, id);
+            accepted.add(xlpsFriend, mentions.start(i), mentions.end(i));
+        }
+        return accepted;
+    }
+
+    /**
+     * 检查@好友个数是否达到最大限制了
+     */
+    public boolean checkAboveMaxCount(int maxCount) {
+        return checkAboveMaxCount(MentionRule.USER_TRIGGER, maxCount);
+    }
+
+    /**
+     * 检查该规则的实体个数是否达到最大限制了,每种规则分别计算
+     */
+    public boolean checkAboveMaxCount(String rule, int maxCount) {
+        return mKeys.count(rule) >= maxCount;
+    }
+
+    /**
+     * 按删除键时,标记光标前面紧挨着的@好友
+     *
+     * @return 被标记的下标, 光标前面不是@好友返回-1
+     */
+    public int markEndingAt(int cursor) {
+        int slot = cursor != 0 ? mIndex.findEndingAt(cursor) : -1;
+        if (slot >= 0) {
+            if (mFlagged != null && mFlagged.mFlag == XlpsFriend.FLAG_MARK) {
+                mFlagged.mFlag = XlpsFriend.FLAG_NORMAL;
+            }
+            mFlagged = mIndex.get(slot);
+            mFlagged.mFlag = XlpsFriend.FLAG_MARK;
+        }
+        return slot;
+    }
+
+    /**
+     * 取消标记
+     *
+     * @return 被取消标记的@好友, 没有返回null
+     */
+    public XlpsFriend unmark() {
+        XlpsFriend xlpsFriend = mFlagged;
+        if (xlpsFriend == null || xlpsFriend.mFlag != XlpsFriend.FLAG_MARK) {
+            return null;
+        }
+        xlpsFriend.mFlag = XlpsFriend.FLAG_NORMAL;
+        mFlagged = null;
+        return xlpsFriend;
+    }
+
+    /**
+     * 从索引中删除@好友,文本需要调用方删除
+     */
+    public XlpsFriend removeAt(int slot) {
+        XlpsFriend xlpsFriend = mIndex.get(slot);
+        mIndex.remove(slot);
+        return xlpsFriend;
+    }
+
+    public void clear() {
+        mIndex.clear();
+        mPending = null;
+    }
+
+    /**
+     * 光标处于@好友内容中间时应该移动到的位置(@好友结束位置)
+     *
+     * @return 不需要移动返回-1
+     */
+    public int snapCursor(int offset) {
+        int slot = mIndex.findContaining(offset);
+        return slot >= 0 ? mIndex.end(slot) : -1;
+    }
+
+    /**
+     * 选区起点处于@好友内容中间时应该扩展到的位置(@好友起始位置)
+     *
+     * @return 不需要扩展返回-1
+     */
+    public int snapSelectionStart(int selStart) {
+        int slot = mIndex.findContaining(selStart);
+        return slot >= 0 ? mIndex.start(slot) : -1;
+    }
+
+    /**
+     * 选区终点处于@好友内容中间时应该扩展到的位置(@好友结束位置)
+     *
+     * @return 不需要扩展返回-1
+     */
+    public int snapSelectionEnd(int selEnd) {
+        int slot = mIndex.findContaining(selEnd);
+        return slot >= 0 ? mIndex.end(slot) : -1;
+    }
+
+    /**
+     * 批量加入@好友的副本,位置取startPos/endPos,超出文本范围的忽略
+     *
+     * @param textLength 当前文本长度
+     * @return 加入的个数
+     */
+    public int addAll(List<? extends XlpsFriend> xlpsFriends, int textLength) {
+        int added = 0;
+        for (XlpsFriend xlpsFriend : xlpsFriends) {
+            if (xlpsFriend != null && xlpsFriend.startPos >= 0
+                    && xlpsFriend.endPos >= xlpsFriend.startPos && xlpsFriend.endPos <= textLength) {
+                mIndex.add(xlpsFriend.copy(), xlpsFriend.startPos, xlpsFriend.endPos);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 批量加入已排好序的@好友,例如{@link WireTextParser}解析出的索引,超出文本长度的跳过
+     *
+     * @return 加入的个数
+     */
+    public int addAll(MentionIndex<XlpsFriend> source, int textLength) {
+        return mIndex.addAll(source, 0, textLength);
+    }
+
+    /**
+     * 在offset处插入了一段文本(如粘贴)后,一次加入其中的@好友,source的位置相对offset
+     *
+     * @param insertedLength 实际插入的长度,可能被InputFilter截短,超出的@好友跳过
+     * @return 加入的个数
+     */
+    public int addAll(MentionIndex<XlpsFriend> source, int offset, int insertedLength) {
+        return mIndex.addAll(source, offset, offset + insertedLength);
+    }
+
+    /**
+     * 获取@好友列表数据的副本,按位置排序,startPos/endPos为当前位置
+     * 索引里的对象不能交给调用方,修改了mRule/mUserId会和重复检查、个数统计对不上
+     */
+    public ArrayList<XlpsFriend> getXlpsFriends() {
+        ArrayList<XlpsFriend> xlpsFriends = new ArrayList<XlpsFriend>(mIndex.size());
+        for (int i = 0; i < mIndex.size(); i++) {
+            XlpsFriend xlpsFriend = mIndex.get(i).copy();
+            xlpsFriend.startPos = mIndex.start(i);
+            xlpsFriend.endPos = mIndex.end(i);
+            xlpsFriends.add(xlpsFriend);
+        }
+        return xlpsFriends;
+    }
+
+    /**
+     * 把@好友替换成"@用户id "后的文本
+     * 复用内部缓冲区,除了返回的字符串外不再分配对象,只能在同一线程调用
+     */
+    public String getAtFriendText(CharSequence content) {
+        if (isEmpty(content)) {
+            return "";
+        }
+        if (mIndex.isEmpty()) {
+            return content.toString();
+        }
+        StringBuilder buffer = mBuffer;
+        buffer.setLength(0);
+        try {
+            writeAtFriendText(content, buffer);
+        } catch (IOException e) {
+            // StringBuilder不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+        MentionTrace.debug("at_friend_text", content.length(), mIndex.size(), buffer.length());
+        return buffer.toString();
+    }
+
+    /**
+     * 把@好友替换成"@用户id "后写入out,其他规则的实体写成"序列化前缀+id "
+     * 按索引顺序遍历,直接从原文本追加,不复制原文本也不排序;
+     * out是Writer时原文本经过复用的缓冲区分段写入,不生成子串
+     */
+    public <A extends Appendable> A writeAtFriendText(CharSequence content, A out) throws IOException {
+        int prePos = 0;
+        for (int i = 0; i < mIndex.size(); i++) {
+            appendRange(out, content, prePos, mIndex.start(i));
+            XlpsFriend xlpsFriend = mIndex.get(i);
+            String prefix = mRules.wirePrefixOf(xlpsFriend);
+            appendRange(out, prefix, 0, prefix.length());
+            appendId(out, xlpsFriend.mUserId);
+            out.append(' ');
+            prePos = mIndex.end(i);
+        }
+        appendRange(out, content, prePos, content.length());
+        return out;
+    }
+
+    /**
+     * Writer的append(CharSequence, int, int)会先生成子串,改为复制到mChunk后写入
+     */
+    private void appendRange(Appendable out, CharSequence content, int start, int end) throws IOException {
+        if (!(out instanceof Writer)) {
+            out.append(content, start, end);
+            return;
+        }
+        Writer writer = (Writer) out;
+        char[] chunk = mChunk;
+        while (start < end) {
+            int count = Math.min(chunk.length, end - start);
+            if (content instanceof String) {
+                ((String) content).getChars(start, start + count, chunk, 0);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    chunk[i] = content.charAt(start + i);
+                }
+            }
+            writer.write(chunk, 0, count);
+            start += count;
+        }
+    }
+
+    /**
+     * 逐位写入用户id,避免Long.toString产生临时字符串
+     */
+    private void appendId(Appendable out, long id) throws IOException {
+        char[] digits = mDigits;
+        int pos = digits.length;
+        long value = id;
+        do {
+            // 负数取余也是负数,统一取绝对值,Long.MIN_VALUE同样适用
+            digits[--pos] = (char) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (id < 0) {
+            digits[--pos] = '-';
+        }
+        if (out instanceof Writer) {
+            ((Writer) out).write(digits, pos, digits.length - pos);
+            return;
+        }
+        while (pos < digits.length) {
+            out.append(digits[pos++]);
+        }
+    }
+
+    private static boolean isEmpty(CharSequence text) {
+        return text == null || text.length() == 0;
+    }
+}
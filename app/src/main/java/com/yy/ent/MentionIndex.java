@@ -0,0 +1,328 @@
+package com.yy.ent;
+
+import java.util.Arrays;
+
+/**
+ * @好友区间索引
+ * <p>
+ * 按起始位置有序保存互不重叠的@好友区间,区间的位置由索引统一维护,
+ * 光标定位、删除判断都是二分查找,批量平移只需一次调用
+ * <p>
+ * 编辑引起的平移不直接改写每个区间,而是记录到树状数组(Fenwick)中,
+ * 读取位置时才叠加,一次编辑只需O(log n)
+ */
+public class MentionIndex<T> {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * 区间加入/删除的通知,用于同步按其他字段建立的索引
+     */
+    public interface Listener<T> {
+        void onAdded(T item);
+
+        void onRemoved(T item);
+    }
+
+    private Object[] mItems = new Object[DEFAULT_CAPACITY];
+    private int[] mStarts = new int[DEFAULT_CAPACITY];
+    private int[] mEnds = new int[DEFAULT_CAPACITY];
+    // 待叠加的平移量,下标从1开始,mShifts前缀和即为对应区间的平移量
+    private int[] mShifts = new int[DEFAULT_CAPACITY + 1];
+    private boolean mHasShifts;
+    private int mSize;
+    private Listener<T> mListener;
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void setListener(Listener<T> listener) {
+        mListener = listener;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int slot) {
+        return (T) mItems[slot];
+    }
+
+    public int start(int slot) {
+        return mStarts[slot] + shiftOf(slot);
+    }
+
+    public int end(int slot) {
+        return mEnds[slot] + shiftOf(slot);
+    }
+
+    /**
+     * 按起始位置插入一个区间
+     *
+     * @return 插入后的下标
+     */
+    public int add(T item, int start, int end) {
+        int slot = lowerBound(start);
+        applyShifts();
+        ensureCapacity(mSize + 1);
+        int moved = mSize - slot;
+        if (moved > 0) {
+            System.arraycopy(mItems, slot, mItems, slot + 1, moved);
+            System.arraycopy(mStarts, slot, mStarts, slot + 1, moved);
+            System.arraycopy(mEnds, slot, mEnds, slot + 1, moved);
+        }
+        mItems[slot] = item;
+        mStarts[slot] = start;
+        mEnds[slot] = end;
+        mSize++;
+        if (mListener != null) {
+            mListener.onAdded(item);
+        }
+        return slot;
+    }
+
+    /**
+     * 把source的前若干个区间平移offset后一次插入,只移动一次已有的区间
+     * source按起始位置有序,平移后不能与已有区间重叠;平移后结束位置超过maxEnd的区间及其之后的都跳过
+     *
+     * @return 插入的个数
+     */
+    public int addAll(MentionIndex<? extends T> source, int offset, int maxEnd) {
+        int count = 0;
+        while (count < source.size() && source.end(count) + offset <= maxEnd) {
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        int slot = lowerBound(source.start(0) + offset);
+        applyShifts();
+        ensureCapacity(mSize + count);
+        int moved = mSize - slot;
+        if (moved > 0) {
+            System.arraycopy(mItems, slot, mItems, slot + count, moved);
+            System.arraycopy(mStarts, slot, mStarts, slot + count, moved);
+            System.arraycopy(mEnds, slot, mEnds, slot + count, moved);
+        }
+        for (int i = 0; i < count; i++) {
+            mItems[slot + i] = source.get(i);
+            mStarts[slot + i] = source.start(i) + offset;
+            mEnds[slot + i] = source.end(i) + offset;
+        }
+        mSize += count;
+        if (mListener != null) {
+            for (int i = 0; i < count; i++) {
+                mListener.onAdded(source.get(i));
+            }
+        }
+        return count;
+    }
+
+    public void remove(int slot) {
+        removeRange(slot, slot + 1);
+    }
+
+    /**
+     * 删除下标[from, to)之间的区间
+     */
+    public void removeRange(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        notifyRemoved(from, to);
+        applyShifts();
+        int moved = mSize - to;
+        if (moved > 0) {
+            System.arraycopy(mItems, to, mItems, from, moved);
+            System.arraycopy(mStarts, to, mStarts, from, moved);
+            System.arraycopy(mEnds, to, mEnds, from, moved);
+        }
+        int newSize = mSize - (to - from);
+        Arrays.fill(mItems, newSize, mSize, null);
+        mSize = newSize;
+    }
+
+    public void clear() {
+        notifyRemoved(0, mSize);
+        Arrays.fill(mItems, 0, mSize, null);
+        Arrays.fill(mShifts, 0);
+        mHasShifts = false;
+        mSize = 0;
+    }
+
+    /**
+     * 按对象查找下标,不存在返回-1
+     */
+    public int indexOf(T item) {
+        for (int i = 0; i < mSize; i++) {
+            if (mItems[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 第一个起始位置>=offset的下标,都小于offset则返回size()
+     */
+    public int lowerBound(int offset) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 查找offset落在其内部(start < offset < end)的区间
+     *
+     * @return 下标, 不存在返回-1
+     */
+    public int findContaining(int offset) {
+        int slot = lowerBound(offset) - 1;
+        if (slot >= 0 && start(slot) < offset && offset < end(slot)) {
+            return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找结束位置正好是offset的区间
+     *
+     * @return 下标, 不存在返回-1
+     */
+    public int findEndingAt(int offset) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < mSize && end(low) == offset ? low : -1;
+    }
+
+    /**
+     * 从下标from开始,被[start, end]完全覆盖的区间的结束下标(不包含)
+     */
+    public int coveredEnd(int from, int end) {
+        int to = from;
+        while (to < mSize && end(to) <= end) {
+            to++;
+        }
+        return to;
+    }
+
+    /**
+     * 起始位置>=offset的区间整体平移delta,只记录一次待叠加的平移量
+     */
+    public void shift(int offset, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        int slot = lowerBound(offset);
+        if (slot >= mSize) {
+            return;
+        }
+        for (int i = slot + 1; i <= mSize; i += i & -i) {
+            mShifts[i] += delta;
+        }
+        mHasShifts = true;
+    }
+
+    /**
+     * 删除被[start, end]完全覆盖的区间
+     *
+     * @return 删除的区间个数
+     */
+    public int removeCovered(int start, int end) {
+        int from = lowerBound(start);
+        int to = coveredEnd(from, end);
+        removeRange(from, to);
+        return to - from;
+    }
+
+    /**
+     * 文本[start, start + before)即将被替换为count个字符,此时位置还是替换前的
+     *
+     * @return 删除的区间个数
+     */
+    public int beforeReplace(int start, int before, int count) {
+        return 0;
+    }
+
+    /**
+     * 文本[start, start + before)已被替换为count个字符
+     * <p>
+     * 1.被替换区域完全覆盖的区间删除<br/>
+     * 2.替换区域之后的区间平移count - before
+     *
+     * @return 删除的区间个数
+     */
+    public int replace(int start, int before, int count) {
+        int removed = 0;
+        if (before != 0) {
+            removed = removeCovered(start, start + before);
+        }
+        // 纯插入时紧挨着插入点的区间也要后移;删除时起点与删除点重合的区间保持不动
+        shift(before == 0 ? start : start + 1, count - before);
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notifyRemoved(int from, int to) {
+        if (mListener != null) {
+            for (int i = from; i < to; i++) {
+                mListener.onRemoved((T) mItems[i]);
+            }
+        }
+    }
+
+    private int shiftOf(int slot) {
+        if (!mHasShifts) {
+            return 0;
+        }
+        int sum = 0;
+        for (int i = slot + 1; i > 0; i -= i & -i) {
+            sum += mShifts[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 把待叠加的平移量写回区间,结构变化(插入/删除)之前调用
+     */
+    private void applyShifts() {
+        if (!mHasShifts) {
+            return;
+        }
+        for (int i = 0; i < mSize; i++) {
+            int shift = shiftOf(i);
+            mStarts[i] += shift;
+            mEnds[i] += shift;
+        }
+        Arrays.fill(mShifts, 0);
+        mHasShifts = false;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mItems.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mItems.length * 2);
+        mItems = Arrays.copyOf(mItems, newCapacity);
+        mStarts = Arrays.copyOf(mStarts, newCapacity);
+        mEnds = Arrays.copyOf(mEnds, newCapacity);
+        mShifts = new int[newCapacity + 1];
+    }
+}
@@ -0,0 +1,53 @@
+package com.yy.ent;
+
+import java.util.HashMap;
+
+/**
+ * 按规则(触发字符串,即{@link XlpsFriend#mRule})分组的实体id集合,同时记录每种规则的实体个数
+ * <p>
+ * 不同规则的id互不相关,#话题5和@用户5不算重复,个数限制也按规则分别计算
+ */
+public class MentionKeySet {
+
+    private static final class Kind {
+        final LongHashSet mIds = new LongHashSet();
+        int mCount;// 包括重复的id
+    }
+
+    private final HashMap<String, Kind> mKinds = new HashMap<String, Kind>();
+
+    public void add(String rule, long id) {
+        Kind kind = mKinds.get(rule);
+        if (kind == null) {
+            kind = new Kind();
+            mKinds.put(rule, kind);
+        }
+        kind.mIds.add(id);
+        kind.mCount++;
+    }
+
+    public void remove(String rule, long id) {
+        Kind kind = mKinds.get(rule);
+        if (kind != null && kind.mIds.contains(id)) {
+            kind.mIds.remove(id);
+            kind.mCount--;
+        }
+    }
+
+    public boolean contains(String rule, long id) {
+        Kind kind = mKinds.get(rule);
+        return kind != null && kind.mIds.contains(id);
+    }
+
+    /**
+     * 该规则的实体个数
+     */
+    public int count(String rule) {
+        Kind kind = mKinds.get(rule);
+        return kind != null ? kind.mCount : 0;
+    }
+
+    public void clear() {
+        mKinds.clear();
+    }
+}
@@ -0,0 +1,52 @@
+package com.yy.ent;
+
+/**
+ * 一种可以插入的实体,例如@好友、#话题、$股票代码
+ * <p>
+ * 显示为"触发字符串+名字+空格",对应{@link XlpsFriend#mRule};
+ * 序列化为"序列化前缀+id+空格",见{@link MentionEngine#writeAtFriendText(CharSequence, Appendable)}
+ */
+public class MentionRule {
+    public static final String USER_TRIGGER = "@";// @好友的触发字符串,名字由用户名接口获取
+
+    private final String mTrigger;
+    private final String mWirePrefix;
+    private final int mForegroundColor;
+
+    public MentionRule(String trigger, int foregroundColor) {
+        this(trigger, trigger, foregroundColor);
+    }
+
+    /**
+     * @param trigger         显示的触发字符串
+     * @param wirePrefix      序列化时id前面的字符串
+     * @param foregroundColor 高亮颜色
+     */
+    public MentionRule(String trigger, String wirePrefix, int foregroundColor) {
+        if (trigger == null || trigger.length() == 0 || wirePrefix == null || wirePrefix.length() == 0) {
+            throw new IllegalArgumentException("empty trigger");
+        }
+        mTrigger = trigger;
+        mWirePrefix = wirePrefix;
+        mForegroundColor = foregroundColor;
+    }
+
+    public String getTrigger() {
+        return mTrigger;
+    }
+
+    public String getWirePrefix() {
+        return mWirePrefix;
+    }
+
+    public int getForegroundColor() {
+        return mForegroundColor;
+    }
+
+    /**
+     * 是否是@好友
+     */
+    public boolean isUser() {
+        return USER_TRIGGER.equals(mTrigger);
+    }
+}
@@ -0,0 +1,93 @@
+package com.yy.ent;
+
+/**
+ * 编辑器支持的所有实体规则,创建后不可修改
+ * <p>
+ * 所有规则的触发字符串、序列化前缀各自合成一个{@link TriggerMatcher},
+ * 识别时只扫描一遍文本,规则下标即匹配的字符串下标
+ */
+public class MentionRules {
+    private final MentionRule[] mRules;
+    private final TriggerMatcher mTriggerMatcher;
+    private final TriggerMatcher mWireMatcher;
+
+    public MentionRules(MentionRule... rules) {
+        if (rules.length == 0) {
+            throw new IllegalArgumentException("no rules");
+        }
+        mRules = rules.clone();
+        String[] triggers = new String[rules.length];
+        String[] wirePrefixes = new String[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (rules[j].getTrigger().equals(rules[i].getTrigger())
+                        || rules[j].getWirePrefix().equals(rules[i].getWirePrefix())) {
+                    throw new IllegalArgumentException("duplicate trigger " + rules[i].getTrigger());
+                }
+            }
+            triggers[i] = rules[i].getTrigger();
+            wirePrefixes[i] = rules[i].getWirePrefix();
+        }
+        mTriggerMatcher = new TriggerMatcher(triggers);
+        mWireMatcher = new TriggerMatcher(wirePrefixes);
+    }
+
+    /**
+     * 只有@好友一种规则
+     */
+    public static MentionRules users(int foregroundColor) {
+        return new MentionRules(new MentionRule(MentionRule.USER_TRIGGER, foregroundColor));
+    }
+
+    public int size() {
+        return mRules.length;
+    }
+
+    public MentionRule get(int index) {
+        return mRules[index];
+    }
+
+    /**
+     * 按触发字符串(即{@link XlpsFriend#mRule})查找规则
+     *
+     * @return 规则, 不存在返回null
+     */
+    public MentionRule find(String trigger) {
+        for (MentionRule rule : mRules) {
+            if (rule.getTrigger() == trigger || rule.getTrigger().equals(trigger)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 序列化时的前缀,没有对应规则的原样使用触发字符串
+     */
+    public String wirePrefixOf(XlpsFriend xlpsFriend) {
+        MentionRule rule = find(xlpsFriend.mRule);
+        return rule != null ? rule.getWirePrefix() : xlpsFriend.mRule;
+    }
+
+    /**
+     * 高亮颜色,没有对应规则的使用defaultColor
+     */
+    public int colorOf(XlpsFriend xlpsFriend, int defaultColor) {
+        MentionRule rule = find(xlpsFriend.mRule);
+        return rule != null ? rule.getForegroundColor() : defaultColor;
+    }
+
+    /**
+     * 显示文本中触发字符串的匹配器
+     */
+    public TriggerMatcher getTriggerMatcher() {
+        return mTriggerMatcher;
+    }
+
+    /**
+     * 序列化文本中前缀的匹配器
+     */
+    public TriggerMatcher getWireMatcher() {
+        return mWireMatcher;
+    }
+}
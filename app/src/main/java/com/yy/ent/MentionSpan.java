@@ -0,0 +1,34 @@
+package com.yy.ent;
+
+import android.text.TextPaint;
+import android.text.style.CharacterStyle;
+import android.text.style.UpdateAppearance;
+
+/**
+ * 携带@好友数据的高亮span
+ * 位置由Editable自身维护,编辑时无需再手动平移
+ * <p>
+ * 颜色不保存在span中,绘制时从{@link MentionStylePool.Slot}读取,换肤不需要替换span
+ */
+public class MentionSpan extends CharacterStyle implements UpdateAppearance {
+    private final MentionStylePool.Slot mSlot;
+    private final XlpsFriend mXlpsFriend;
+
+    public MentionSpan(MentionStylePool.Slot slot, XlpsFriend xlpsFriend) {
+        mSlot = slot;
+        mXlpsFriend = xlpsFriend;
+    }
+
+    public XlpsFriend getXlpsFriend() {
+        return mXlpsFriend;
+    }
+
+    public int getForegroundColor() {
+        return mSlot.get().getForegroundColor();
+    }
+
+    @Override
+    public void updateDrawState(TextPaint textPaint) {
+        mSlot.get().apply(textPaint);
+    }
+}
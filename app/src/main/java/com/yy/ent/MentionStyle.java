@@ -0,0 +1,61 @@
+package com.yy.ent;
+
+import android.text.TextPaint;
+
+/**
+ * 不可变的高亮样式:文字颜色和/或背景颜色
+ * <p>
+ * 由{@link MentionStylePool}创建和共享,换肤时替换整个对象而不是修改它
+ */
+public final class MentionStyle {
+    private final int mForegroundColor;
+    private final int mBackgroundColor;
+    private final boolean mHasForeground;
+    private final boolean mHasBackground;
+
+    private MentionStyle(int foregroundColor, boolean hasForeground, int backgroundColor, boolean hasBackground) {
+        mForegroundColor = foregroundColor;
+        mHasForeground = hasForeground;
+        mBackgroundColor = backgroundColor;
+        mHasBackground = hasBackground;
+    }
+
+    /**
+     * 只改变文字颜色
+     */
+    public static MentionStyle foreground(int color) {
+        return new MentionStyle(color, true, 0, false);
+    }
+
+    /**
+     * 只改变背景颜色
+     */
+    public static MentionStyle background(int color) {
+        return new MentionStyle(0, false, color, true);
+    }
+
+    public int getForegroundColor() {
+        return mForegroundColor;
+    }
+
+    public int getBackgroundColor() {
+        return mBackgroundColor;
+    }
+
+    public boolean hasForeground() {
+        return mHasForeground;
+    }
+
+    public boolean hasBackground() {
+        return mHasBackground;
+    }
+
+    void apply(TextPaint textPaint) {
+        if (mHasForeground) {
+            textPaint.setColor(mForegroundColor);
+        }
+        if (mHasBackground) {
+            textPaint.bgColor = mBackgroundColor;
+        }
+    }
+}
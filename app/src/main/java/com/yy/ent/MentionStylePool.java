@@ -0,0 +1,211 @@
+package com.yy.ent;
+
+import android.text.TextPaint;
+import android.text.style.CharacterStyle;
+import android.text.style.UpdateAppearance;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 同一主题下所有输入框共用的高亮样式
+ * <p>
+ * 每种实体(按触发字符串和规则要求的颜色区分)和"标记删除"各有一个{@link Slot},span只引用Slot,绘制时才读取其中的样式;
+ * 换肤时替换Slot中的{@link MentionStyle},所有引用它的span下次绘制即生效,不需要遍历@好友。
+ * 标记删除的背景span没有携带数据,整个池共用一个对象
+ * <p>
+ * 样式变化时通知所有{@link #addListener(Listener)}的使用者(如各个输入框重绘);
+ * 共用的池只被弱引用,没有输入框使用后即可回收。
+ * 共用的池换肤后就不再按原来的颜色共用,之后创建的输入框得到新的池,颜色仍是它要求的颜色
+ * <p>
+ * 只在主线程使用
+ */
+public final class MentionStylePool {
+    private static final HashMap<Long, WeakReference<MentionStylePool>> sShared =
+            new HashMap<Long, WeakReference<MentionStylePool>>();
+
+    /**
+     * 样式变化的监听
+     */
+    public interface Listener {
+        void onStyleChanged(MentionStylePool pool);
+    }
+
+    /**
+     * 可替换的样式位置
+     */
+    public static final class Slot {
+        private final int mRequestedColor;// 创建时要求的颜色,换肤后可能和当前样式不同
+        private MentionStyle mStyle;
+
+        Slot(int requestedColor, MentionStyle style) {
+            mRequestedColor = requestedColor;
+            mStyle = style;
+        }
+
+        public MentionStyle get() {
+            return mStyle;
+        }
+    }
+
+    /**
+     * 按Slot当前样式绘制的span,不携带@好友数据,可以同时用在多个输入框中
+     */
+    private static final class SlotSpan extends CharacterStyle implements UpdateAppearance {
+        private final Slot mSlot;
+
+        SlotSpan(Slot slot) {
+            mSlot = slot;
+        }
+
+        @Override
+        public void updateDrawState(TextPaint textPaint) {
+            mSlot.get().apply(textPaint);
+        }
+    }
+
+    private final HashMap<String, ArrayList<Slot>> mSlots = new HashMap<String, ArrayList<Slot>>();// 按触发字符串,每种颜色一个
+    private final HashMap<String, Integer> mColors = new HashMap<String, Integer>();// 换肤设置的颜色,按触发字符串
+    private final Slot mMarkSlot;
+    private final CharacterStyle mMarkSpan;
+    private final WeakHashMap<Listener, Boolean> mListeners = new WeakHashMap<Listener, Boolean>();// 弱引用,不影响使用者回收
+
+    /**
+     * @param markBackgroundColor 标记删除的背景颜色
+     */
+    public MentionStylePool(int markBackgroundColor) {
+        mMarkSlot = new Slot(markBackgroundColor, MentionStyle.background(markBackgroundColor));
+        mMarkSpan = new SlotSpan(mMarkSlot);
+    }
+
+    /**
+     * 按主题颜色共用的池,颜色相同的输入框得到同一个池;已经换肤的池不再返回
+     */
+    public static MentionStylePool shared(int foregroundColor, int markBackgroundColor) {
+        Long key = ((long) foregroundColor << 32) | (markBackgroundColor & 0xFFFFFFFFL);
+        WeakReference<MentionStylePool> reference = sShared.get(key);
+        MentionStylePool pool = reference != null ? reference.get() : null;
+        if (pool == null) {
+            // 顺便清理已经回收的池
+            Iterator<Map.Entry<Long, WeakReference<MentionStylePool>>> iterator = sShared.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue().get() == null) {
+                    iterator.remove();
+                }
+            }
+            pool = new MentionStylePool(markBackgroundColor);
+            sShared.put(key, new WeakReference<MentionStylePool>(pool));
+        }
+        return pool;
+    }
+
+    /**
+     * 触发字符串和颜色对应的Slot,还没有时创建
+     * <p>
+     * 规则颜色不同的输入框共用一个池时各自得到自己的颜色;该触发字符串换过肤时都用换肤的颜色
+     */
+    public Slot getSlot(String trigger, int color) {
+        ArrayList<Slot> slots = mSlots.get(trigger);
+        if (slots == null) {
+            slots = new ArrayList<Slot>(1);
+            mSlots.put(trigger, slots);
+        }
+        Integer themed = mColors.get(trigger);
+        for (int i = 0; i < slots.size(); i++) {
+            Slot slot = slots.get(i);
+            if (themed != null || slot.mRequestedColor == color) {
+                return slot;
+            }
+        }
+        Slot slot = new Slot(color, MentionStyle.foreground(themed != null ? themed : color));
+        slots.add(slot);
+        return slot;
+    }
+
+    /**
+     * 为@好友创建高亮span,颜色取规则的颜色,规则之外的实体用defaultColor
+     */
+    public MentionSpan newMentionSpan(XlpsFriend xlpsFriend, MentionRules rules, int defaultColor) {
+        return new MentionSpan(getSlot(xlpsFriend.mRule, rules.colorOf(xlpsFriend, defaultColor)), xlpsFriend);
+    }
+
+    /**
+     * 换肤:修改一种实体的文字颜色,该触发字符串之前和之后创建的Slot都使用这个颜色
+     */
+    public void setColor(String trigger, int color) {
+        Integer themed = mColors.get(trigger);
+        if (themed != null && themed == color) {
+            return;
+        }
+        mColors.put(trigger, color);
+        unshare();
+        boolean changed = false;
+        ArrayList<Slot> slots = mSlots.get(trigger);
+        if (slots != null) {
+            MentionStyle style = MentionStyle.foreground(color);
+            for (int i = 0; i < slots.size(); i++) {
+                Slot slot = slots.get(i);
+                if (slot.mStyle.getForegroundColor() != color) {
+                    slot.mStyle = style;
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            notifyChanged();
+        }
+    }
+
+    /**
+     * 换肤:修改标记删除的背景颜色
+     */
+    public void setMarkColor(int color) {
+        if (mMarkSlot.mStyle.getBackgroundColor() != color) {
+            mMarkSlot.mStyle = MentionStyle.background(color);
+            unshare();
+            notifyChanged();
+        }
+    }
+
+    /**
+     * 换肤后颜色和共用时的主题不同了,不再让之后的输入框按原来的颜色取到这个池
+     */
+    private void unshare() {
+        Iterator<WeakReference<MentionStylePool>> iterator = sShared.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().get() == this) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 监听样式变化,只保存弱引用,使用者需要自己持有listener
+     */
+    public void addListener(Listener listener) {
+        mListeners.put(listener, Boolean.TRUE);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void notifyChanged() {
+        // 回调中可能增删监听,先复制
+        for (Listener listener : new ArrayList<Listener>(mListeners.keySet())) {
+            listener.onStyleChanged(this);
+        }
+    }
+
+    /**
+     * 标记删除的背景span,所有输入框共用
+     */
+    public CharacterStyle getMarkSpan() {
+        return mMarkSpan;
+    }
+}
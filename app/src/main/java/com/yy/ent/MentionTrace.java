@@ -0,0 +1,61 @@
+package com.yy.ent;
+
+/**
+ * @好友编辑的跟踪日志
+ * <p>
+ * 默认关闭,关闭时调用只读一次静态字段,不拼接字符串也不分配对象;
+ * 事件只携带事件名和几个int参数,不会把输入内容带到日志里
+ */
+public final class MentionTrace {
+    public static final int LEVEL_OFF = 0;
+    public static final int LEVEL_INFO = 1;
+    public static final int LEVEL_DEBUG = 2;
+
+    /**
+     * 结构化的事件接收者
+     */
+    public interface Sink {
+        /**
+         * @param level 日志级别
+         * @param event 事件名,固定的字符串常量
+         */
+        void onEvent(int level, String event, int arg0, int arg1, int arg2);
+    }
+
+    private static volatile int sLevel = LEVEL_OFF;
+    private static volatile Sink sSink;
+
+    private MentionTrace() {
+    }
+
+    /**
+     * 设置事件接收者和级别,sink为null或level为LEVEL_OFF时关闭跟踪
+     */
+    public static void setSink(Sink sink, int level) {
+        sSink = sink;
+        sLevel = sink != null ? level : LEVEL_OFF;
+    }
+
+    public static boolean isEnabled(int level) {
+        return level <= sLevel && level != LEVEL_OFF;
+    }
+
+    public static void debug(String event, int arg0, int arg1, int arg2) {
+        if (LEVEL_DEBUG <= sLevel) {
+            dispatch(LEVEL_DEBUG, event, arg0, arg1, arg2);
+        }
+    }
+
+    public static void info(String event, int arg0, int arg1, int arg2) {
+        if (LEVEL_INFO <= sLevel) {
+            dispatch(LEVEL_INFO, event, arg0, arg1, arg2);
+        }
+    }
+
+    private static void dispatch(int level, String event, int arg0, int arg1, int arg2) {
+        Sink sink = sSink;
+        if (sink != null) {
+            sink.onEvent(level, event, arg0, arg1, arg2);
+        }
+    }
+}
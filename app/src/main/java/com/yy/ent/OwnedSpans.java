@@ -0,0 +1,103 @@
+package com.yy.ent;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 控件自己设置的span登记表
+ * <p>
+ * 每个key(一般是@好友对象)最多对应一个span,重新设置时先移除旧的span,
+ * 避免同一位置不断叠加span;已经被文本删除回收的span通过{@link #compact()}清理
+ */
+public class OwnedSpans {
+
+    /**
+     * span的实际宿主,一般是EditText当前的Editable
+     */
+    public interface Host {
+        void setSpan(Object span, int start, int end, int flags);
+
+        void removeSpan(Object span);
+
+        /**
+         * @return span的起始位置, 已不在文本中返回-1
+         */
+        int getSpanStart(Object span);
+
+        int getSpanEnd(Object span);
+    }
+
+    private final Host mHost;
+    private final IdentityHashMap<Object, Object> mSpans = new IdentityHashMap<Object, Object>();
+
+    public OwnedSpans(Host host) {
+        mHost = host;
+    }
+
+    /**
+     * key当前对应的span,没有返回null
+     */
+    public Object get(Object key) {
+        return mSpans.get(key);
+    }
+
+    /**
+     * 给key设置span,key原来的span(如果不是同一个对象)会被移除
+     */
+    public void set(Object key, Object span, int start, int end, int flags) {
+        Object old = mSpans.put(key, span);
+        if (old != null && old != span) {
+            mHost.removeSpan(old);
+        }
+        mHost.setSpan(span, start, end, flags);
+    }
+
+    public int getSpanStart(Object key) {
+        Object span = mSpans.get(key);
+        return span != null ? mHost.getSpanStart(span) : -1;
+    }
+
+    public int getSpanEnd(Object key) {
+        Object span = mSpans.get(key);
+        return span != null ? mHost.getSpanEnd(span) : -1;
+    }
+
+    public void remove(Object key) {
+        Object span = mSpans.remove(key);
+        if (span != null) {
+            mHost.removeSpan(span);
+        }
+    }
+
+    public void clear() {
+        for (Object span : mSpans.values()) {
+            mHost.removeSpan(span);
+        }
+        mSpans.clear();
+    }
+
+    /**
+     * 清理已经不在文本中的span(文本被删除时Editable会自动回收长度为0的span)
+     *
+     * @return 清理的个数
+     */
+    public int compact() {
+        int removed = 0;
+        Iterator<Map.Entry<Object, Object>> iterator = mSpans.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (mHost.getSpanStart(iterator.next().getValue()) < 0) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 当前登记的span个数
+     */
+    public int size() {
+        return mSpans.size();
+    }
+}
@@ -1,42 +1,49 @@
 package com.yy.ent;
 
+import android.content.ClipData;
+import android.content.ClipDescription;
+import android.content.ClipboardManager;
 import android.content.Context;
+import android.content.Intent;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.InputFilter;
 import android.text.Spannable;
 import android.text.Spanned;
 import android.text.TextUtils;
 import android.text.TextWatcher;
-import android.text.style.BackgroundColorSpan;
-import android.text.style.ForegroundColorSpan;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
 import android.widget.EditText;
 import android.widget.Toast;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.Serializable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * 含有@好友功能的富文本EditText
  * 主要用于@好友只有之后部分字体背景颜色改变
  * <p>
+ * @好友的位置、删除、光标规则都在{@link MentionEngine}中,这里只负责转发EditText的事件和更新span
+ * <p>
  * Created by dengqu on 2017/9/1.
  */
 public class RichEditText extends EditText {
-    private final static String TAG = RichEditText.class.getSimpleName();
-    public final static int MAX_AT_COUNT = 5;
+    public final static int MAX_AT_COUNT = 5;// 默认最多@好友个数
     // 默认,@好友文本高亮颜色
     private static final int DEFAULT_FOREGROUND_COLOR = Color.parseColor("#FF8C00");
     // 默认,@好友背景高亮颜色
@@ -47,10 +54,101 @@ public class RichEditText extends EditText {
      */
     private int mForegroundColor = DEFAULT_FOREGROUND_COLOR;// @好友文本高亮颜色
     private int mBackgroundColor = DEFAULT_BACKGROUND_COLOR;// @好友背景高亮颜色
-    private ArrayList<XlpsFriend> mXlpsFriends = new ArrayList<XlpsFriend>();// object集合
-    private XlpsFriend mXlpsFriend;
+    private MentionStylePool mStylePool;// 高亮样式,同一主题的输入框共用
+    // 共用样式池的颜色被任一输入框修改时重绘,样式池只弱引用它
+    private final MentionStylePool.Listener mStyleListener = new MentionStylePool.Listener() {
+        @Override
+        public void onStyleChanged(MentionStylePool pool) {
+            invalidate();
+        }
+    };
+    private final MentionEngine mEngine = new MentionEngine();// 与Android无关的@好友逻辑
+    private boolean mSpanTracking;// 是否由span维护@好友位置
+    private int mRefreshStart = Integer.MAX_VALUE;// 待刷新区域
+    private int mRefreshEnd = -1;
+    private final OwnedSpans.Host mSpanHost = new OwnedSpans.Host() {
+        @Override
+        public void setSpan(Object span, int start, int end, int flags) {
+            getText().setSpan(span, start, end, flags);
+        }
+
+        @Override
+        public void removeSpan(Object span) {
+            getText().removeSpan(span);
+        }
+
+        @Override
+        public int getSpanStart(Object span) {
+            return getText().getSpanStart(span);
+        }
+
+        @Override
+        public int getSpanEnd(Object span) {
+            return getText().getSpanEnd(span);
+        }
+    };
+    private final OwnedSpans mMentionSpans = new OwnedSpans(mSpanHost);// @好友高亮span
+    private final OwnedSpans mMarkSpans = new OwnedSpans(mSpanHost);// 标记删除的背景span
+    private boolean mSpansStale;// 有@好友被删除,登记的span需要清理
     private int mMaxNum = Integer.MAX_VALUE;//最大字数
+    private int mMaxAtCount = MAX_AT_COUNT;// 最多@好友个数
     private OverLengthListener mOverLengthListener;
+    private LengthCounter mLengthCounter = new LengthCounter(LengthPolicy.CODE_UNITS);// 按计数方式增量维护的文本长度
+    private final UserNameCache mNameCache = new UserNameCache();// 用户id到名字的缓存
+    private UserNameLoader mNameLoader;// 异步获取名字,没有设置则名字必须预先填好
+    private static Executor sNameExecutor;// 所有输入框共用的获取名字线程
+    private DraftAutosaver mDraftAutosaver;// 草稿自动保存
+    private int mTextVersion;// 文本每次变化加一,用来判断后台读取草稿期间是否输入过
+    private static Executor sDraftExecutor;// 所有输入框共用的写草稿线程
+    private SuggestionLoader mSuggestionLoader;// 自动补全候选查询,没有设置为null
+    private SuggestionListener mSuggestionListener;
+    private static Executor sSuggestionExecutor;// 所有输入框共用的查询候选线程
+    private TriggerDetector mTriggerDetector;// 检测光标前正在输入的触发词
+    private int mSuggestionStart = -1;// 已发出查询的触发词位置,没有为-1
+    private String mSuggestionQuery;// 已发出查询的内容
+    private boolean mBulkEditing;// 正在整段替换文本(如粘贴),结束后统一刷新
+    private boolean mSnappingSelection;// 正在调整光标/选区,防止onSelectionChanged重入
+    private int mBatchDepth;// beginMentionBatch嵌套层数
+    private boolean mBatchChanged;// 批量修改期间文本有变化,结束时需要刷新
+    private EditHistory mHistory;// 撤销/重做记录,没有开启为null
+    private final EditHistory.Target mHistoryTarget = new EditHistory.Target() {
+        @Override
+        public void replace(int start, int end, CharSequence text) {
+            getText().replace(start, end, text);
+        }
+
+        @Override
+        public void addMention(XlpsFriend xlpsFriend, int start, int end) {
+            mEngine.getIndex().add(xlpsFriend, start, end);
+            markRefreshRange(start, end);
+        }
+
+        @Override
+        public void setSelection(int offset) {
+            RichEditText.this.setSelection(Math.min(offset, getText().length()));
+        }
+    };
+    // 删除键先标记@好友,再次删除才整体删除
+    private final MentionDeleteController mDeleteController = new MentionDeleteController(mEngine,
+            new MentionDeleteController.Host() {
+                @Override
+                public void showMark(XlpsFriend xlpsFriend, int start, int end) {
+                    // 设置背景色,同一时间只有一个标记,直接用样式池共用的span
+                    mMarkSpans.set(xlpsFriend, mStylePool.getMarkSpan(), start, end,
+                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+
+                @Override
+                public void hideMark(XlpsFriend xlpsFriend) {
+                    mMarkSpans.remove(xlpsFriend);
+                }
+
+                @Override
+                public void deleteMention(int slot, int start, int end) {
+                    removeMentionAt(slot);
+                    getText().delete(start, end);
+                }
+            });
     private RefreshEditFinishListener mRefreshEditFinishListener;
 
     public RichEditText(Context context) {
@@ -68,6 +166,9 @@ public class RichEditText extends EditText {
                 .getColor(R.styleable.REditText_object_foreground_color,
                         DEFAULT_FOREGROUND_COLOR);
         a.recycle();
+        mStylePool = MentionStylePool.shared(mForegroundColor, mBackgroundColor);
+        mStylePool.addListener(mStyleListener);
+        mEngine.setRules(MentionRules.users(mForegroundColor));
         // 初始化设置
         initView();
     }
@@ -77,88 +178,88 @@ public class RichEditText extends EditText {
      */
     @Override
     protected void onSelectionChanged(int selStart, int selEnd) {
-        Log.d(TAG, "onSelectionChanged selStart=" + selStart + ",selEnd=" + selEnd);
+        MentionTrace.debug("selection_changed", selStart, selEnd, 0);
         super.onSelectionChanged(selStart, selEnd);
+        if (mBulkEditing) {
+            return;
+        }
+        mDeleteController.onSelectionChanged(selStart, selEnd);
         handleOnSelectionChanged(selStart, selEnd);
+        if (mBatchDepth == 0) {
+            updateSuggestions();
+        }
     }
 
 
+    /**
+     * 回到窗口(如从其他页面返回)时重新获取之前没有获取到的名字
+     */
+    @Override
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        super.onWindowFocusChanged(hasWindowFocus);
+        if (hasWindowFocus) {
+            retryUserNames();
+        }
+    }
+
     /**
      * 处理光标位置发生变化的时候，主要功能是是光标位置不能在@好友之间
+     * <p>
+     * 每个端点二分查找一次,需要调整时只调用一次setSelection;
+     * 调整引起的onSelectionChanged不再处理,结果已经是调整好的
      *
      * @param selStart
      * @param selEnd
      */
     private void handleOnSelectionChanged(int selStart, int selEnd) {
-        if (mXlpsFriends == null || mXlpsFriends.size() == 0) {
+        if (mSnappingSelection || mEngine.getIndex().isEmpty()) {
             return;
         }
 
-        int startPosition = 0;
-        int endPosition = 0;
-        String objectText = "";
-        for (int i = 0; i < mXlpsFriends.size(); i++) {
-            XlpsFriend xlpsFriend = mXlpsFriends.get(i);
-            if (xlpsFriend == null) {
-                continue;
+        int newStart;
+        int newEnd;
+        if (selStart == selEnd) {
+            // 若光标处于@好友内容中间则移动光标到@好友结束位置
+            int endPosition = mEngine.snapCursor(selStart);
+            if (endPosition < 0) {
+                return;
             }
-            startPosition = xlpsFriend.startPos;// 获取文本开始下标
-            endPosition = xlpsFriend.endPos;
-            if (selStart == selEnd) {
-                if (startPosition >= 0 && endPosition >= startPosition && selStart > startPosition && selStart < endPosition) {// 若光标处于@好友内容中间则移动光标到@好友结束位置
-                    Log.d(TAG, "onSelectionChanged startPosition=" + startPosition + "，endPosition=" + endPosition + "，selStart=" + selStart);
-                    if (!hasFlagClean()) {
-                        setSelection(endPosition);
-                    }
-                }
-            } else {
-                if (startPosition >= 0 && endPosition >= startPosition) {// 若光标处于@好友内容中间则移动光标到@好友结束位置
-                    Log.d(TAG, "onSelectionChanged startPosition=" + startPosition + "，endPosition=" + endPosition + "，selStart=" + selStart);
-                    if (!hasFlagClean()) {
-                        if (selEnd > startPosition && selEnd < endPosition) {
-                            setSelection(selStart, endPosition);
-                        }
-                        if (selStart > startPosition && selStart < endPosition) {
-                            setSelection(startPosition, selEnd);
-                        }
-                    }
-                }
+            newStart = endPosition;
+            newEnd = endPosition;
+        } else {
+            // 若选区端点处于@好友内容中间则扩展到整个@好友,拖动选区手柄时起点可能在终点之后
+            boolean forward = selStart < selEnd;
+            int low = forward ? selStart : selEnd;
+            int high = forward ? selEnd : selStart;
+            int startPosition = mEngine.snapSelectionStart(low);
+            int endPosition = mEngine.snapSelectionEnd(high);
+            if (startPosition < 0 && endPosition < 0) {
+                return;
             }
+            low = startPosition >= 0 ? startPosition : low;
+            high = endPosition >= 0 ? endPosition : high;
+            newStart = forward ? low : high;
+            newEnd = forward ? high : low;
         }
-    }
-
-    /**
-     * 是否含有标志清除的
-     *
-     * @return
-     */
-    private boolean hasFlagClean() {
-        if (mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-            return false;
-        }
-        for (XlpsFriend xlpsFriend : mXlpsFriends) {
-            if (xlpsFriend.mFlag == XlpsFriend.FLAG_CLEAR) {
-                return true;
-            }
+        MentionTrace.debug("selection_snap", selStart, selEnd, newEnd);
+        mSnappingSelection = true;
+        try {
+            setSelection(newStart, newEnd);
+        } finally {
+            mSnappingSelection = false;
         }
-        return false;
     }
 
     /**
      * 初始化控件,一些监听
      */
     private void initView() {
+        mLengthCounter.reset(getText());
         setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View v) {
-                Log.d(TAG, "initView onClick-------------");
-                XlpsFriend xlpsFriend = checkHasDeleteSelect();
-                if (xlpsFriend != null) {
-                    getText().setSpan(new BackgroundColorSpan(
-                                    Color.TRANSPARENT), xlpsFriend.startPos, xlpsFriend.endPos,
-                            Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    xlpsFriend.mFlag = XlpsFriend.FLAG_NORMAL;
-                }
+                MentionTrace.debug("click", 0, 0, 0);
+                mDeleteController.cancel();
 
             }
         });
@@ -170,8 +271,11 @@ public class RichEditText extends EditText {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count,
                                           int after) {
-                Log.d(TAG, "addTextChangedListener beforeTextChanged s=" + s + ",start=" + start + ",count=" + count + ",after=" + after);
-                //resetTextChanged(start, count, after);
+                MentionTrace.debug("before_text_changed", start, count, after);
+                mLengthCounter.beforeTextChanged(s, start, count);
+                if (mHistory != null) {
+                    mHistory.beforeChange(s, start, count, mEngine.getIndex());
+                }
                 handleBeforeTextChanged(start, count, after);
 
             }
@@ -179,16 +283,31 @@ public class RichEditText extends EditText {
             @Override
             public void onTextChanged(CharSequence s, int start, int before,
                                       int count) {
-                Log.d(TAG, "addTextChangedListener onTextChanged s=" + s + ",start=" + start + ",count=" + count + ",before=" + before);
+                MentionTrace.debug("text_changed", start, before, count);
+                mTextVersion++;
+                mLengthCounter.onTextChanged(s, start, before, count);
+                if (mHistory != null) {
+                    mHistory.afterChange(s, start, before, count);
+                }
+                mDeleteController.onTextChanged();
                 handleOnTextChanged(start, before, count);
+                markRefreshRange(start, start + count);
 
             }
 
             @Override
             public void afterTextChanged(Editable s) {
-                Log.d(TAG, "addTextChangedListener afterTextChanged s=" + s);
-                // 文字改变刷新UI
-                refreshEditTextUI(s.toString());
+                MentionTrace.debug("after_text_changed", s.length(), 0, 0);
+                if (mBulkEditing) {
+                    return;
+                }
+                if (mBatchDepth > 0) {
+                    // 批量修改期间只把新插入的@好友加入索引,其他的结束时统一处理
+                    commitPendingMention();
+                    mBatchChanged = true;
+                    return;
+                }
+                handleAfterTextChanged();
 
             }
         });
@@ -201,39 +320,11 @@ public class RichEditText extends EditText {
         this.setOnKeyListener(new OnKeyListener() {
             @Override
             public boolean onKey(View v, int keyCode, KeyEvent event) {
-                Log.d(TAG, "setOnKeyListener onKey keyCode=" + keyCode + "，event.getAction() == KeyEvent.ACTION_DOWN " + (event.getAction() == KeyEvent.ACTION_DOWN));
+                MentionTrace.debug("key", keyCode, event.getAction(), 0);
                 if (keyCode == KeyEvent.KEYCODE_DEL
                         && event.getAction() == KeyEvent.ACTION_DOWN) {
-
-                    int selectionStart = getSelectionStart();
-                    int selectionEnd = getSelectionEnd();
-                    Log.d(TAG, "setOnKeyListener onKey selectionStart=" + selectionStart + ",selectionEnd=" + selectionEnd);
-                    XlpsFriend xlpsFriend = checkHasDeleteSelect();
-                    if (xlpsFriend != null) {
-                        xlpsFriend.mFlag = XlpsFriend.FLAG_CLEAR;
-                        setSelection(xlpsFriend.startPos, xlpsFriend.endPos);
-                        mXlpsFriends.remove(xlpsFriend);
-                        Log.i(TAG, "setOnKeyListener onKey xlpsFriend != null start=" + xlpsFriend.startPos + ",end=" + xlpsFriend.endPos);
-
-                        return false;
-                    }
-                    int lastPos = 0;
-                    Editable editable = getText();
-                    // 遍历判断光标的位置
-                    for (int i = 0; i < mXlpsFriends.size(); i++) {
-                        XlpsFriend objectFriend = mXlpsFriends.get(i);
-                        if (objectFriend != null && objectFriend.startPos >= 0 && objectFriend.endPos >= objectFriend.startPos && selectionStart != 0 && selectionStart == mXlpsFriends.get(i).endPos) {
-                            // 选中@好友
-                            String objectText = objectFriend.mUserName;
-                            Log.d(TAG, "setOnKeyListener onKey start=" + lastPos + ",stop=" + (lastPos + objectText.length()));
-                            // 设置背景色
-                            editable.setSpan(new BackgroundColorSpan(
-                                            mBackgroundColor), objectFriend.startPos, objectFriend.endPos,
-                                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-                            objectFriend.mFlag = XlpsFriend.FLAG_MARK;
-                            return true;
-                        }
-                    }
+                    MentionTrace.debug("key_del", getSelectionStart(), getSelectionEnd(), 0);
+                    return mDeleteController.onDelete(getSelectionStart(), getSelectionEnd());
                 }
                 return false;
             }
@@ -242,74 +333,116 @@ public class RichEditText extends EditText {
     }
 
 
-    private void handleBeforeTextChanged(int start, int count,
-                                         int after) {
-        if (count != 0) {
-            if (mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-                return;
-            }
-            List<XlpsFriend> deleteFriends = new ArrayList<>();
-            for (XlpsFriend xlpsFriend : mXlpsFriends) {
-                if (xlpsFriend.startPos >= start && xlpsFriend.endPos <= start + count) {
-                    deleteFriends.add(xlpsFriend);
-                }
-            }
-            if (deleteFriends != null && !deleteFriends.isEmpty()) {
-                for (XlpsFriend xlpsFriend : deleteFriends) {
-                    Log.d(TAG, "handleBeforeTextChanged remove start=" + xlpsFriend.startPos + ",end=" + xlpsFriend.endPos);
-                    mXlpsFriends.remove(xlpsFriend);
-                }
-            }
-            for (XlpsFriend xlpsFriend : mXlpsFriends) {
-                if (xlpsFriend.startPos > start) {
-                    xlpsFriend.startPos = xlpsFriend.startPos - count;
-                    xlpsFriend.endPos = xlpsFriend.endPos - count;
-                }
+    /**
+     * 软键盘的删除一般不经过OnKeyListener,而是调用deleteSurroundingText,同样交给{@link MentionDeleteController}
+     */
+    @Override
+    public InputConnection onCreateInputConnection(EditorInfo outAttrs) {
+        InputConnection inputConnection = super.onCreateInputConnection(outAttrs);
+        return inputConnection != null ? new MentionInputConnection(inputConnection) : null;
+    }
+
+    private class MentionInputConnection extends InputConnectionWrapper {
+        MentionInputConnection(InputConnection target) {
+            super(target, true);
+        }
+
+        @Override
+        public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+            MentionTrace.debug("ime_delete", beforeLength, afterLength, getSelectionStart());
+            if (beforeLength == 1 && afterLength == 0
+                    && mDeleteController.onDelete(getSelectionStart(), getSelectionEnd())) {
+                return true;
             }
+            return super.deleteSurroundingText(beforeLength, afterLength);
         }
     }
 
+    /**
+     * 文本变化完成:保存草稿、刷新UI、更新自动补全
+     */
+    private void handleAfterTextChanged() {
+        if (mDraftAutosaver != null) {
+            mDraftAutosaver.onEdit();
+        }
+        // 文字改变刷新UI
+        refreshEditTextUI();
+        updateSuggestions();
+    }
+
+    /**
+     * 文本变化前,span模式下删除被完全覆盖的@好友
+     */
+    private void handleBeforeTextChanged(int start, int count, int after) {
+        int removed = mEngine.beforeTextChanged(start, count, after);
+        if (removed > 0) {
+            MentionTrace.debug("mentions_removed_before", removed, start, count);
+            mSpansStale = true;
+        }
+    }
+
+    /**
+     * 文本变化后更新@好友位置,删除被完全覆盖的@好友,之后的@好友整体平移
+     * 位置只在这里修改一次,span模式下位置由Editable维护
+     */
     private void handleOnTextChanged(int start, int before, int count) {
-        if (count != 0) {
-            if (mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-                return;
-            }
-            for (XlpsFriend xlpsFriend : mXlpsFriends) {
-                if (xlpsFriend.startPos >= start) {
-                    xlpsFriend.startPos = xlpsFriend.startPos + count;
-                    xlpsFriend.endPos = xlpsFriend.endPos + count;
-                }
-            }
+        int removed = mEngine.onTextChanged(start, before, count);
+        if (removed > 0) {
+            MentionTrace.debug("mentions_removed", removed, start, before);
+            mSpansStale = true;
         }
     }
 
     public void addFriend() {
-        RichEditText.XlpsFriend xlpsFriend = new RichEditText.XlpsFriend();
+        XlpsFriend xlpsFriend = new XlpsFriend();
         Random random = new Random();
         xlpsFriend.mUserName = "邓区" + random.nextInt(100);
         addFriend(xlpsFriend);
     }
 
     public void addFriend(XlpsFriend xlpsFriend) {
-        if (xlpsFriend == null) {
+        if (xlpsFriend == null || !checkCanAddFriend(xlpsFriend) || !fillUserName(xlpsFriend)) {
             return;
         }
-        if (checkAboveMaxCount()) {
-            Log.i(TAG, "addFriend checkAboveMaxCount = " + checkAboveMaxCount());
+        setAtFriend(xlpsFriend);
+    }
+
+    /**
+     * 名字后面加上空格,名字还没有的@好友先用占位文本,获取到名字后再替换
+     *
+     * @return 没有名字、也不能异步获取名字时返回false
+     */
+    private boolean fillUserName(XlpsFriend xlpsFriend) {
+        if (TextUtils.isEmpty(xlpsFriend.mUserName)) {
+            if (!MentionRule.USER_TRIGGER.equals(xlpsFriend.mRule)) {
+                // 只有@好友的名字可以异步获取
+                return false;
+            }
+            xlpsFriend.mUserName = getUserNameOrRequest(xlpsFriend.mUserId);
+        }
+        xlpsFriend.mUserName = xlpsFriend.mUserName + " ";
+        return true;
+    }
+
+    /**
+     * 检查是否超过个数限制、是否已经@过,不能添加时提示
+     */
+    private boolean checkCanAddFriend(XlpsFriend xlpsFriend) {
+        if (mEngine.checkAboveMaxCount(xlpsFriend.mRule, mMaxAtCount)) {
+            MentionTrace.info("add_friend_above_max", mEngine.countOf(xlpsFriend.mRule), mMaxAtCount, 0);
             showAblowMaxCountToast();
-            return;
+            return false;
         }
         if (isExistFriend(xlpsFriend)) {
-            Log.i(TAG, "addFriend isExistFriend = " + isExistFriend(xlpsFriend));
+            MentionTrace.info("add_friend_exist", mEngine.getIndex().size(), 0, 0);
             showIsExistFriendToast();
-            return;
+            return false;
         }
-        xlpsFriend.mUserName = xlpsFriend.mUserName + " ";
-        setAtFriend(xlpsFriend);
+        return true;
     }
 
     public void showAblowMaxCountToast() {
-        Toast.makeText(getContext(), "最多可以同时@" + MAX_AT_COUNT + "人喔", Toast.LENGTH_SHORT);
+        Toast.makeText(getContext(), "最多可以同时@" + mMaxAtCount + "人喔", Toast.LENGTH_SHORT);
     }
 
     public void showIsExistFriendToast() {
@@ -317,15 +450,7 @@ public class RichEditText extends EditText {
     }
 
     public boolean isExistFriend(XlpsFriend xlpsFriend) {
-        if (xlpsFriend == null || mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-            return false;
-        }
-        for (XlpsFriend friend : mXlpsFriends) {
-            if (friend.mUserId == xlpsFriend.mUserId) {
-                return true;
-            }
-        }
-        return false;
+        return mEngine.isExistFriend(xlpsFriend);
     }
 
     /**
@@ -334,80 +459,198 @@ public class RichEditText extends EditText {
      * @return
      */
     public boolean checkAboveMaxCount() {
-        if (mXlpsFriends == null || mXlpsFriends.size() < MAX_AT_COUNT) {
-            return false;
-        }
-        return true;
+        return mEngine.checkAboveMaxCount(mMaxAtCount);
     }
 
     /**
-     * 检查是否含有标志清除的@好友对象
-     *
-     * @return
+     * 检查该规则的实体个数是否大于最大限制了,每种规则分别计算
      */
-    private XlpsFriend checkHasDeleteSelect() {
-        if (mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-            return null;
-        }
-        for (XlpsFriend xlpsFriend : mXlpsFriends) {
-            if (xlpsFriend.mFlag == XlpsFriend.FLAG_MARK) {
-                return xlpsFriend;
-            }
-        }
-        return null;
+    public boolean checkAboveMaxCount(String rule) {
+        return mEngine.checkAboveMaxCount(rule, mMaxAtCount);
+    }
+
+    public int getMaxAtCount() {
+        return mMaxAtCount;
     }
 
     /**
-     * EditText内容修改之后刷新UI
-     *
-     * @param content
+     * 设置最多可以@的好友个数,默认{@link #MAX_AT_COUNT},其他规则的实体各自按这个个数限制,已有的@好友不受影响
+     */
+    public void setMaxAtCount(int maxAtCount) {
+        mMaxAtCount = maxAtCount;
+    }
+
+    /**
+     * 记录待刷新的文本区域
+     */
+    private void markRefreshRange(int start, int end) {
+        mRefreshStart = Math.min(mRefreshStart, start);
+        mRefreshEnd = Math.max(mRefreshEnd, end);
+    }
+
+    /**
+     * EditText内容修改之后刷新UI,只处理与本次编辑区域相交的@好友
      */
-    private void refreshEditTextUI(String content) {
+    private void refreshEditTextUI() {
 
         /**
          * 内容变化时操作<br/>
-         * 1.查找匹配所有@好友内容 <br/>
-         * 2.设置@好友内容特殊颜色
+         * 1.把新插入的@好友加入索引 <br/>
+         * 2.设置编辑区域内@好友的高亮
          */
+        Editable editable = getText();
+        if (editable.length() == 0) {
+            mRefreshStart = Integer.MAX_VALUE;
+            mRefreshEnd = -1;
+            mEngine.clear();
+            mMentionSpans.clear();
+            mMarkSpans.clear();
+            mSpansStale = false;
+            return;
+        }
+        if (mSpansStale) {
+            compactSpans();
+        }
 
-        if (TextUtils.isEmpty(content)) {
-            mXlpsFriends.clear();
+        commitPendingMention();
+        int refreshStart = mRefreshStart;
+        int refreshEnd = Math.min(mRefreshEnd, editable.length());
+        mRefreshStart = Integer.MAX_VALUE;
+        mRefreshEnd = -1;
+
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        if (index.isEmpty())
             return;
+
+        // span模式下MentionSpan本身就是高亮,位置由Editable维护
+        if (!mSpanTracking && refreshStart <= refreshEnd) {
+            updateMentionSpans(editable, refreshStart, refreshEnd);
+        }
+
+        if (mRefreshEditFinishListener != null) {
+            mRefreshEditFinishListener.onRefreshEditFinish();
         }
+    }
+
+    /**
+     * 把刚插入文本的@好友加入索引,并记录需要刷新高亮的区域
+     */
+    private void commitPendingMention() {
+        XlpsFriend object = mEngine.commitPending();
+        if (object != null) {
+            if (mHistory != null) {
+                mHistory.mentionAdded(object, object.startPos, object.endPos);
+            }
+            markRefreshRange(object.startPos, object.endPos);
+        }
+    }
 
-        if (mXlpsFriend != null) {
-            mXlpsFriends.add(mXlpsFriend.copy());
-            mXlpsFriend = null;
+    /**
+     * 刷新整个文本的@好友高亮,批量修改期间推迟到结束时
+     */
+    private void refreshAllEditTextUI() {
+        markRefreshRange(0, getText().length());
+        if (mBatchDepth > 0) {
+            mBatchChanged = true;
+            return;
         }
+        refreshEditTextUI();
+    }
 
+    /**
+     * 开始一组程序修改,如连续插入多个@好友、设置文本后再加入@好友
+     * <p>
+     * 到{@link #endMentionBatch()}之前,每次文本变化只更新@好友的位置和索引,
+     * 刷新高亮、保存草稿、自动补全和{@link RefreshEditFinishListener}在结束时按所有修改的范围统一处理一次;
+     * 可以嵌套,最外层结束时才处理。与输入法使用的{@link #beginBatchEdit()}无关
+     */
+    public void beginMentionBatch() {
+        mBatchDepth++;
+    }
 
-        if (mXlpsFriends.size() == 0)
+    /**
+     * 结束{@link #beginMentionBatch()}开始的批量修改
+     */
+    public void endMentionBatch() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("endMentionBatch() without beginMentionBatch()");
+        }
+        if (--mBatchDepth > 0 || !mBatchChanged) {
             return;
+        }
+        mBatchChanged = false;
+        MentionTrace.debug("batch_end", mRefreshStart, mRefreshEnd, mEngine.getIndex().size());
+        handleAfterTextChanged();
+    }
 
-        /**
-         * 重新设置span
-         */
-        Editable editable = getText();
-        int findPosition = 0;
-        for (int i = 0; i < mXlpsFriends.size(); i++) {
-            final XlpsFriend object = mXlpsFriends.get(i);
-            Log.i(TAG, "refreshEditTextUI i=" + i + ",findPosition=" + findPosition);
-            if (object != null && object.startPos >= 0 && object.endPos >= object.startPos && object.endPos <= editable.length()) {
-                ForegroundColorSpan colorSpan = new ForegroundColorSpan(
-                        mForegroundColor);
-                editable.setSpan(colorSpan, object.startPos, object.endPos,
-                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    public boolean isInMentionBatch() {
+        return mBatchDepth > 0;
+    }
+
+    /**
+     * 更新与[start, end]相交的@好友的高亮span
+     * 已有的{@link MentionSpan}位置正确则不处理,位置不对则移动原对象,只有新的@好友才创建span
+     */
+    private void updateMentionSpans(Editable editable, int start, int end) {
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        int from = index.lowerBound(start);
+        if (from > 0 && index.end(from - 1) > start) {
+            from--;
+        }
+        int length = editable.length();
+        for (int i = from; i < index.size() && index.start(i) < end; i++) {
+            XlpsFriend xlpsFriend = index.get(i);
+            int spanStart = index.start(i);
+            int spanEnd = index.end(i);
+            if (spanStart < 0 || spanEnd < spanStart || spanEnd > length) {
+                continue;
             }
+            Object span = mMentionSpans.get(xlpsFriend);
+            if (span == null) {
+                span = mStylePool.newMentionSpan(xlpsFriend, mEngine.getRules(), mForegroundColor);
+            } else if (editable.getSpanStart(span) == spanStart && editable.getSpanEnd(span) == spanEnd) {
+                continue;
+            }
+            MentionTrace.debug("span_update", i, spanStart, spanEnd);
+            mMentionSpans.set(xlpsFriend, span, spanStart, spanEnd, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
+    }
 
-        XlpsFriend xlpsFriend = checkHasDeleteSelect();
-        if (xlpsFriend != null) {
-            mXlpsFriends.remove(xlpsFriend);
-            getText().delete(xlpsFriend.startPos, xlpsFriend.endPos);
-        }
-        if (mRefreshEditFinishListener != null) {
-            mRefreshEditFinishListener.onRefreshEditFinish();
+    /**
+     * 从索引中删除@好友并移除相关的span,文本随后由调用方或系统删除
+     */
+    private XlpsFriend removeMentionAt(int slot) {
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        if (mHistory != null) {
+            mHistory.mentionRemoved(index.get(slot), index.start(slot), index.end(slot));
         }
+        XlpsFriend xlpsFriend = mEngine.removeAt(slot);
+        releaseSpans(xlpsFriend);
+        return xlpsFriend;
+    }
+
+    /**
+     * 移除@好友相关的所有span
+     */
+    private void releaseSpans(XlpsFriend xlpsFriend) {
+        mMentionSpans.remove(xlpsFriend);
+        mMarkSpans.remove(xlpsFriend);
+    }
+
+    /**
+     * 清理随文本删除已被Editable回收的span
+     */
+    private void compactSpans() {
+        int removed = mMentionSpans.compact() + mMarkSpans.compact();
+        mSpansStale = false;
+        MentionTrace.debug("spans_compacted", removed, getOwnedSpanCount(), 0);
+    }
+
+    /**
+     * 控件当前设置在文本上的span个数,正常情况下不超过@好友个数的两倍
+     */
+    public int getOwnedSpanCount() {
+        return mMentionSpans.size() + mMarkSpans.size();
     }
 
     /**
@@ -417,17 +660,6 @@ public class RichEditText extends EditText {
      */
     public void setAtFriend(XlpsFriend object) {
 
-        if (object == null)
-            return;
-
-        String objectRule = object.mRule;
-        String objectText = object.mUserName;
-        if (TextUtils.isEmpty(objectText) || TextUtils.isEmpty(objectRule))
-            return;
-
-        // 拼接字符# %s #,并保存
-        objectText = objectRule + objectText;
-        object.mUserName = objectText;
         /**
          * 添加@好友<br/>
          * 1.将@好友内容添加到数据集合中<br/>
@@ -437,19 +669,19 @@ public class RichEditText extends EditText {
         /**
          * 1.添加@好友内容到数据集合
          */
-        object.startPos = getSelectionStart();
-        object.endPos = object.startPos + objectText.length();
-        int curLength = getText().length();
-        int objectTextLength = objectText.length();
-        Log.i(TAG, "setAtFriend curLength =" + curLength);
-        Log.i(TAG, "setAtFriend objectTextLength =" + objectTextLength);
+        String objectText = mEngine.prepareAtFriend(object, getSelectionStart());
+        if (objectText == null)
+            return;
+        int curLength = getTextLength();
+        int objectTextLength = mLengthCounter.getPolicy().measure(objectText);
+        MentionTrace.info("set_at_friend", curLength, objectTextLength, getMaxNum());
         if (curLength + objectTextLength > getMaxNum()) {
             if (mOverLengthListener != null) {
                 mOverLengthListener.onOverLength();
             }
             return;
         }
-        mXlpsFriend = object;
+        mEngine.setPending(object);
 
 
         /**
@@ -468,39 +700,55 @@ public class RichEditText extends EditText {
 
 
     /**
-     * 获取mXlpsFriends列表数据
+     * 设置是否由span维护@好友位置
+     * <p>
+     * 开启后每个@好友对应一个{@link MentionSpan},编辑时位置由Editable自动维护,
+     * 不再单独记录和平移位置
+     */
+    public void setSpanTracking(boolean spanTracking) {
+        if (mSpanTracking == spanTracking) {
+            return;
+        }
+        // span模式下新的span会替换原来登记的高亮span
+        MentionIndex<XlpsFriend> oldIndex = mEngine.getIndex();
+        MentionIndex<XlpsFriend> index = spanTracking
+                ? new SpanMentionIndex(mMentionSpans, mEngine.getRules(), mStylePool, mForegroundColor)
+                : new MentionIndex<XlpsFriend>();
+        for (int i = 0; i < oldIndex.size(); i++) {
+            index.add(oldIndex.get(i), oldIndex.start(i), oldIndex.end(i));
+        }
+        if (!spanTracking) {
+            mMentionSpans.clear();
+        }
+        mEngine.setIndex(index);
+        mSpanTracking = spanTracking;
+        if (!spanTracking) {
+            refreshAllEditTextUI();
+        }
+    }
+
+    public boolean isSpanTracking() {
+        return mSpanTracking;
+    }
+
+    /**
+     * 获取@好友列表数据,按位置排序,startPos/endPos为当前位置
+     * 返回的是副本,修改列表或其中的对象都不会影响输入框
      */
     public ArrayList<XlpsFriend> getXlpsFriends() {
-        return mXlpsFriends;
+        return mEngine.getXlpsFriends();
     }
 
 
     public String getAtFriendText() {
-        String text = getText().toString();
-        if (TextUtils.isEmpty(text)) {
-            return "";
-        }
-        if (mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-            return text;
-        }
-        Collections.sort(mXlpsFriends, new Comparator<XlpsFriend>() {
-            @Override
-            public int compare(XlpsFriend lhs, XlpsFriend rhs) {
-                return lhs.startPos - rhs.startPos;
-            }
-        });
-        Log.d(TAG, "getAtFriendText text=" + text);
-        StringBuilder stringBuilder = new StringBuilder();
-        int prePos = 0;
-        for (XlpsFriend xlpsFriend : mXlpsFriends) {
-            Log.d(TAG, "getAtFriendText xlpsFriend start=" + xlpsFriend.startPos + ",end=" + xlpsFriend.endPos + ",prePos=" + prePos);
-            stringBuilder.append(text.substring(prePos, xlpsFriend.startPos));
-            stringBuilder.append("@" + xlpsFriend.mUserId + " ");
-            prePos = xlpsFriend.endPos;
-        }
-        stringBuilder.append(text.substring(prePos, text.length()));
-        Log.i(TAG, "getAtFriendText stringBuilder=" + stringBuilder.toString());
-        return stringBuilder.toString();
+        return mEngine.getAtFriendText(getText());
+    }
+
+    /**
+     * 把@好友替换成"@用户id "后直接写入out,适合草稿保存、发送时写入已有的缓冲区或Writer
+     */
+    public <A extends Appendable> A writeAtFriendText(A out) throws IOException {
+        return mEngine.writeAtFriendText(getText(), out);
     }
 
     public int getMaxNum() {
@@ -511,107 +759,722 @@ public class RichEditText extends EditText {
         this.mMaxNum = mMaxNum;
     }
 
+    /**
+     * 设置字数的计数方式,{@link #getMaxNum()}和{@link EditLengthFilter}都按此计数,默认按UTF-16字符
+     */
+    public void setLengthPolicy(LengthPolicy policy) {
+        mLengthCounter = new LengthCounter(policy);
+        mLengthCounter.reset(getText());
+    }
+
+    public LengthPolicy getLengthPolicy() {
+        return mLengthCounter.getPolicy();
+    }
+
+    /**
+     * 按{@link #setLengthPolicy(LengthPolicy)}计算的当前字数,编辑时增量更新
+     */
+    public int getTextLength() {
+        return mLengthCounter.getLength();
+    }
+
     public void setOverLengthListener(OverLengthListener overLengthListener) {
         mOverLengthListener = overLengthListener;
     }
 
-    public void setXlpsFriends(ArrayList<XlpsFriend> xlpsFriends) {
+    public void setXlpsFriends(List<? extends XlpsFriend> xlpsFriends) {
         if (xlpsFriends == null || xlpsFriends.isEmpty()) {
             return;
         }
-        if (mXlpsFriends != null) {
-            mXlpsFriends.addAll(xlpsFriends);
-            refreshEditTextUI(getText().toString());
-        }
+        mEngine.addAll(xlpsFriends, getText().length());
+        refreshAllEditTextUI();
     }
 
-    @Override
-    public boolean onTextContextMenuItem(int id) {
-        switch (id) {
-            case android.R.id.copy:
-                resetFriendBg();
-                break;
+    /**
+     * 在光标处依次插入多个@好友,整体只刷新一次
+     */
+    public void addFriends(List<? extends XlpsFriend> xlpsFriends) {
+        beginMentionBatch();
+        try {
+            for (XlpsFriend xlpsFriend : xlpsFriends) {
+                addFriend(xlpsFriend);
+            }
+        } finally {
+            endMentionBatch();
         }
-        boolean result = super.onTextContextMenuItem(id);
-        refreshEditTextUI(getText().toString());
-        return result;
-
     }
 
     /**
-     * 更新edittext的文本颜色，不然复制下来的文本也会含有颜色的
+     * 用"@用户id "格式的文本设置内容,例如重新打开草稿、编辑已发送的消息
+     * 显示文本和@好友一次解析完成,不依赖保存的startPos/endPos
+     *
+     * @param resolver 根据用户id获取名字,获取不到的保留原文
      */
-    private void resetFriendBg() {
-        if (mXlpsFriends == null || mXlpsFriends.isEmpty()) {
-            return;
-        }
-        for (XlpsFriend xlpsFriend : mXlpsFriends) {
-            ForegroundColorSpan colorSpan = new ForegroundColorSpan(
-                    Color.WHITE);
-            getText().setSpan(colorSpan, xlpsFriend.startPos, xlpsFriend.endPos,
-                    Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+    public void setWireText(CharSequence wireText, final WireTextParser.NameResolver resolver) {
+        setWireText(wireText, new WireTextParser.EntityResolver() {
+            @Override
+            public String getName(MentionRule rule, long id) {
+                return rule.isUser() ? resolver.getUserName(id) : null;
+            }
+        });
+    }
 
-        }
+    /**
+     * 按{@link #setMentionRules(MentionRules)}设置的所有规则还原文本,一次扫描识别所有前缀
+     */
+    public void setWireText(CharSequence wireText, WireTextParser.EntityResolver resolver) {
+        WireTextParser parser = WireTextParser.parse(wireText, mEngine.getRules(), resolver);
+        setTextWithMentions(parser.getText(), parser.getIndex());
     }
 
-    public void setRefreshEditFinishListener(RefreshEditFinishListener refreshEditFinishListener) {
-        mRefreshEditFinishListener = refreshEditFinishListener;
+    /**
+     * 设置支持的实体规则(如@好友、#话题),每种规则有自己的颜色和序列化前缀
+     * 一般在初始化时设置;规则的颜色在样式池中该触发字符串换肤之前生效,之后换肤用{@link #setMentionColor(String, int)}
+     */
+    public void setMentionRules(MentionRules rules) {
+        mEngine.setRules(rules);
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        if (index instanceof SpanMentionIndex) {
+            ((SpanMentionIndex) index).setRules(rules);
+        }
+    }
+
+    public MentionRules getMentionRules() {
+        return mEngine.getRules();
+    }
+
+    /**
+     * 换肤:修改一种实体的高亮颜色
+     * <p>
+     * 只替换样式池中的样式,共用同一个池的输入框都会改变并重绘,不遍历@好友;之后创建的输入框仍按自己的颜色显示。
+     * 只想改变当前输入框时先{@link #setStylePool(MentionStylePool)}换成单独的池
+     */
+    public void setMentionColor(String trigger, int color) {
+        mStylePool.setColor(trigger, color);
+    }
+
+    /**
+     * 换肤:修改删除键标记@好友的背景颜色,共用同一个池的输入框都会改变
+     */
+    public void setMarkColor(int color) {
+        mStylePool.setMarkColor(color);
+    }
+
+    /**
+     * 使用另一个样式池,例如只有当前输入框使用不同的主题
+     * <p>
+     * 已有的@好友会重新创建高亮span,只在切换样式池时遍历一次
+     */
+    public void setStylePool(MentionStylePool stylePool) {
+        if (stylePool == null || stylePool == mStylePool) {
+            return;
+        }
+        // 标记的背景span属于原来的样式池
+        mDeleteController.cancel();
+        mStylePool.removeListener(mStyleListener);
+        mStylePool = stylePool;
+        stylePool.addListener(mStyleListener);
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        if (index instanceof SpanMentionIndex) {
+            ((SpanMentionIndex) index).setStylePool(stylePool);
+        }
+        for (int i = 0; i < index.size(); i++) {
+            XlpsFriend xlpsFriend = index.get(i);
+            if (mMentionSpans.get(xlpsFriend) != null) {
+                // 先取位置,span模式下位置来自旧的span
+                int start = index.start(i);
+                int end = index.end(i);
+                mMentionSpans.set(xlpsFriend, stylePool.newMentionSpan(xlpsFriend, mEngine.getRules(), mForegroundColor),
+                        start, end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        invalidate();
+    }
+
+    public MentionStylePool getStylePool() {
+        return mStylePool;
+    }
+
+    /**
+     * 保存草稿,格式见{@link DraftCodec}
+     *
+     * @throws java.nio.BufferOverflowException out剩余空间不够,可以按{@link #getDraftMaxSize()}分配
+     */
+    public void saveDraft(ByteBuffer out) {
+        DraftCodec.encode(getText(), mEngine.getIndex(), out);
+    }
+
+    /**
+     * 保存草稿最多需要的字节数
+     */
+    public int getDraftMaxSize() {
+        return DraftCodec.maxEncodedSize(getText(), mEngine.getIndex());
+    }
+
+    /**
+     * 恢复{@link #saveDraft(ByteBuffer)}保存的草稿
+     *
+     * @throws IllegalArgumentException 草稿版本不支持或数据不合法
+     */
+    public void restoreDraft(ByteBuffer in) {
+        StringBuilder text = new StringBuilder();
+        MentionIndex<XlpsFriend> index = new MentionIndex<XlpsFriend>();
+        DraftCodec.decode(in, text, index);
+        // 标记状态只在一次删除操作中有效,恢复后不再保留
+        for (int i = 0; i < index.size(); i++) {
+            index.get(i).mFlag = XlpsFriend.FLAG_NORMAL;
+        }
+        setTextWithMentions(text, index);
+    }
+
+    /**
+     * 开启/关闭撤销重做,关闭时清空记录
+     */
+    public void setUndoEnabled(boolean enabled) {
+        if (enabled && mHistory == null) {
+            mHistory = new EditHistory();
+        } else if (!enabled) {
+            mHistory = null;
+        }
+    }
+
+    /**
+     * @return 撤销重做记录, 没有开启返回null
+     */
+    public EditHistory getEditHistory() {
+        return mHistory;
+    }
+
+    public boolean canUndo() {
+        return mHistory != null && mHistory.canUndo();
+    }
+
+    public boolean canRedo() {
+        return mHistory != null && mHistory.canRedo();
+    }
+
+    /**
+     * 撤销最近一次编辑,被删除的@好友会恢复
+     */
+    public boolean undo() {
+        if (mHistory == null) {
+            return false;
+        }
+        // 文本和恢复的@好友一起刷新,只通知一次
+        beginMentionBatch();
+        try {
+            return mHistory.undo(mHistoryTarget);
+        } finally {
+            endMentionBatch();
+        }
+    }
+
+    public boolean redo() {
+        if (mHistory == null) {
+            return false;
+        }
+        // 文本和恢复的@好友一起刷新,只通知一次
+        beginMentionBatch();
+        try {
+            return mHistory.redo(mHistoryTarget);
+        } finally {
+            endMentionBatch();
+        }
+    }
+
+    /**
+     * 开启草稿自动保存,停止输入一段时间后在后台写入file,传null关闭
+     */
+    public void setDraftFile(File file) {
+        if (file == null) {
+            setDraftAutosaver(null);
+            return;
+        }
+        synchronized (RichEditText.class) {
+            if (sDraftExecutor == null) {
+                sDraftExecutor = Executors.newSingleThreadExecutor();
+            }
+        }
+        setDraftAutosaver(new DraftAutosaver(this, new DraftFileStore(file), sDraftExecutor));
     }
 
+    /**
+     * 替换草稿自动保存,原来的还有没保存的修改时先立即保存
+     */
+    public void setDraftAutosaver(DraftAutosaver draftAutosaver) {
+        if (mDraftAutosaver != null) {
+            mDraftAutosaver.flushPending();
+        }
+        mDraftAutosaver = draftAutosaver;
+    }
 
-    public static class XlpsFriend implements Serializable {
-        public final static int FLAG_NORMAL = 1000;//正常状态
-        public final static int FLAG_MARK = 1001;//被标记,准备清除
-        public final static int FLAG_CLEAR = 1002;//标记清除
-        public int mFlag = FLAG_NORMAL;
-        public String mRule = "@";// 匹配规则
-        public long mUserId;//用户id
-        public String mUserName;// 高亮文本
-        public int startPos;
-        public int endPos;
-
-        public XlpsFriend copy() {
-            XlpsFriend xlpsFriend = new XlpsFriend();
-            xlpsFriend.mFlag = mFlag;
-            xlpsFriend.mRule = mRule;
-            xlpsFriend.mUserId = mUserId;
-            xlpsFriend.mUserName = mUserName;
-            xlpsFriend.startPos = startPos;
-            xlpsFriend.endPos = endPos;
-            return xlpsFriend;
-        }
-
-        public JSONObject getJsonObject() {
-            JSONObject jsonObject = null;
-            try {
-                jsonObject = new JSONObject();
-                jsonObject.put("flag", mFlag);
-                jsonObject.put("rule", mRule);
-                jsonObject.put("user_id", mUserId);
-                jsonObject.put("user_name", mUserName);
-                jsonObject.put("start_pos", startPos);
-                jsonObject.put("end_pos", endPos);
-            } catch (JSONException e) {
-                jsonObject = null;
-            }
-            return jsonObject;
-        }
-
-        public static XlpsFriend parseJSONObject(JSONObject jsonObject) {
-            if (jsonObject != null) {
-                XlpsFriend xlpsFriend = new XlpsFriend();
-                xlpsFriend.mFlag = jsonObject.optInt("flag");
-                xlpsFriend.mRule = jsonObject.optString("rule");
-                xlpsFriend.mUserId = jsonObject.optLong("user_id");
-                xlpsFriend.mUserName = jsonObject.optString("user_name");
-                xlpsFriend.startPos = jsonObject.optInt("start_pos");
-                xlpsFriend.endPos = jsonObject.optInt("end_pos");
-                return xlpsFriend;
-            }
-            return null;
+    /**
+     * 立即保存草稿,例如页面onPause时调用
+     */
+    public void flushDraft() {
+        if (mDraftAutosaver != null) {
+            mDraftAutosaver.flush();
         }
     }
 
+    /**
+     * 从{@link #setDraftFile(File)}设置的文件恢复草稿,文件在后台线程读取,读取完成后在主线程恢复
+     */
+    public void restoreDraftFile() {
+        restoreDraftFile(null);
+    }
+
+    /**
+     * 同{@link #restoreDraftFile()},恢复完成后回调listener
+     * 读取期间换了草稿文件或修改过文本则不再恢复,不覆盖用户已经输入的内容
+     */
+    public void restoreDraftFile(final DraftRestoreListener listener) {
+        final DraftAutosaver autosaver = mDraftAutosaver;
+        final int textVersion = mTextVersion;
+        if (autosaver == null) {
+            if (listener != null) {
+                listener.onDraftRestored(false);
+            }
+            return;
+        }
+        autosaver.load(new DraftAutosaver.LoadListener() {
+            @Override
+            public void onDraftLoaded(ByteBuffer draft) {
+                boolean restored = false;
+                if (draft != null && autosaver == mDraftAutosaver && textVersion == mTextVersion) {
+                    try {
+                        restoreDraft(draft);
+                        restored = true;
+                    } catch (RuntimeException e) {
+                        // 版本不支持或文件损坏
+                        MentionTrace.info("draft_restore_invalid", 0, 0, 0);
+                    }
+                }
+                if (listener != null) {
+                    listener.onDraftRestored(restored);
+                }
+            }
+        });
+    }
+
+    /**
+     * 设置文本并批量加入位置对应的@好友
+     */
+    private void setTextWithMentions(CharSequence text, MentionIndex<XlpsFriend> index) {
+        beginMentionBatch();
+        try {
+            setText(text);
+            mEngine.addAll(index, getText().length());
+            refreshAllEditTextUI();
+        } finally {
+            endMentionBatch();
+        }
+    }
+
+    /**
+     * 用"@用户id "格式的文本设置内容,名字先从缓存中获取,
+     * 没有缓存的先显示占位文本,设置了{@link UserNameResolver}的会异步批量获取;
+     * 其他规则的实体保留原文
+     */
+    public void setWireText(CharSequence wireText) {
+        setWireText(wireText, new WireTextParser.NameResolver() {
+            @Override
+            public String getUserName(long userId) {
+                return getUserNameOrRequest(userId);
+            }
+        });
+    }
+
+    /**
+     * 设置异步获取名字的接口,在所有输入框共用的后台线程调用
+     */
+    public void setUserNameResolver(UserNameResolver resolver) {
+        synchronized (RichEditText.class) {
+            if (sNameExecutor == null) {
+                sNameExecutor = Executors.newSingleThreadExecutor();
+            }
+        }
+        setUserNameResolver(resolver, sNameExecutor);
+    }
+
+    /**
+     * 设置异步获取名字的接口
+     *
+     * @param backgroundExecutor 调用resolver的线程
+     */
+    public void setUserNameResolver(UserNameResolver resolver, Executor backgroundExecutor) {
+        if (mNameLoader != null) {
+            mNameLoader.release();
+            mNameLoader = null;
+        }
+        if (resolver == null) {
+            return;
+        }
+        final Handler handler = new Handler(Looper.getMainLooper());
+        mNameLoader = new UserNameLoader(resolver, mNameCache, backgroundExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        }, new UserNameLoader.Listener() {
+            @Override
+            public void onUserNamesLoaded(Map<Long, String> userNames) {
+                applyUserNames(userNames);
+            }
+        });
+    }
+
+    /**
+     * 重新获取之前请求失败或没有返回名字的@好友名字,例如网络恢复时调用;窗口重新获得焦点时会自动调用
+     */
+    public void retryUserNames() {
+        if (mNameLoader != null) {
+            mNameLoader.retryUnresolved();
+        }
+    }
+
+    /**
+     * 开启输入触发词(如"@ab")时的自动补全,候选在所有输入框共用的后台线程查询
+     *
+     * @param source   候选来源,如{@link ContactPrefixIndex};为null则关闭自动补全
+     * @param listener 候选更新/消失时在主线程回调
+     */
+    public void setCandidateSource(CandidateSource source, SuggestionListener listener) {
+        synchronized (RichEditText.class) {
+            if (sSuggestionExecutor == null) {
+                sSuggestionExecutor = Executors.newSingleThreadExecutor();
+            }
+        }
+        setCandidateSource(source, listener, sSuggestionExecutor);
+    }
+
+    /**
+     * 开启自动补全
+     *
+     * @param backgroundExecutor 调用source的线程
+     */
+    public void setCandidateSource(CandidateSource source, SuggestionListener listener,
+                                   Executor backgroundExecutor) {
+        dismissSuggestions();
+        mSuggestionLoader = null;
+        mSuggestionListener = listener;
+        if (source == null) {
+            return;
+        }
+        final Handler handler = new Handler(Looper.getMainLooper());
+        mSuggestionLoader = new SuggestionLoader(source, backgroundExecutor, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        }, new SuggestionLoader.Listener() {
+            @Override
+            public void onSuggestions(MentionRule rule, String query, List<XlpsFriend> candidates) {
+                if (mSuggestionListener != null) {
+                    mSuggestionListener.onSuggestions(rule, query, candidates);
+                }
+            }
+        });
+        updateSuggestions();
+    }
+
+    /**
+     * 用选中的候选替换光标前正在输入的触发词,如"@ab"替换为"@abc "
+     */
+    public void acceptSuggestion(XlpsFriend candidate) {
+        if (candidate == null || mTriggerDetector == null) {
+            return;
+        }
+        int cursor = getSelectionStart();
+        if (cursor != getSelectionEnd() || !mTriggerDetector.detect(getText(), cursor, mEngine.getIndex())) {
+            return;
+        }
+        XlpsFriend xlpsFriend = candidate.copy();
+        xlpsFriend.mRule = mTriggerDetector.getRule().getTrigger();
+        xlpsFriend.mFlag = XlpsFriend.FLAG_NORMAL;
+        if (!checkCanAddFriend(xlpsFriend) || !fillUserName(xlpsFriend)) {
+            return;
+        }
+        int triggerStart = mTriggerDetector.getTriggerStart();
+        String objectText = mEngine.prepareAtFriend(xlpsFriend, triggerStart);
+        if (objectText == null) {
+            return;
+        }
+        // 先检查长度,超出时保留已输入的触发字符串和查询
+        LengthPolicy policy = mLengthCounter.getPolicy();
+        int length = getTextLength() - policy.measure(getText(), triggerStart, cursor) + policy.measure(objectText);
+        if (length > getMaxNum()) {
+            if (mOverLengthListener != null) {
+                mOverLengthListener.onOverLength();
+            }
+            return;
+        }
+        MentionTrace.info("suggestion_accept", triggerStart, cursor, 0);
+        dismissSuggestions();
+        // 删除查询和插入@好友是一次替换,只刷新一次
+        beginMentionBatch();
+        try {
+            mEngine.setPending(xlpsFriend);
+            getText().replace(triggerStart, cursor, objectText);
+            setSelection(Math.min(triggerStart + objectText.length(), getText().length()));
+        } finally {
+            endMentionBatch();
+        }
+    }
+
+    /**
+     * 文本或光标变化后检测正在输入的触发词,查询内容变化时才发出新的查询
+     * 每次只检查光标前面很短的一段文本,不创建对象
+     */
+    private void updateSuggestions() {
+        if (mSuggestionLoader == null) {
+            return;
+        }
+        MentionRules rules = mEngine.getRules();
+        if (mTriggerDetector == null || mTriggerDetector.getRules() != rules) {
+            mTriggerDetector = new TriggerDetector(rules);
+        }
+        Editable editable = getText();
+        int cursor = getSelectionStart();
+        if (cursor != getSelectionEnd() || !mTriggerDetector.detect(editable, cursor, mEngine.getIndex())) {
+            dismissSuggestions();
+            return;
+        }
+        int triggerStart = mTriggerDetector.getTriggerStart();
+        int queryStart = mTriggerDetector.getQueryStart();
+        if (triggerStart == mSuggestionStart && sameQuery(editable, queryStart, cursor, mSuggestionQuery)) {
+            return;
+        }
+        mSuggestionStart = triggerStart;
+        mSuggestionQuery = editable.subSequence(queryStart, cursor).toString();
+        MentionTrace.debug("suggestion_query", triggerStart, mSuggestionQuery.length(), 0);
+        mSuggestionLoader.query(mTriggerDetector.getRule(), mSuggestionQuery);
+    }
+
+    private static boolean sameQuery(CharSequence text, int start, int end, String query) {
+        if (query == null || query.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) != query.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 作废还没返回的查询,通知候选消失
+     */
+    private void dismissSuggestions() {
+        if (mSuggestionStart < 0) {
+            return;
+        }
+        mSuggestionStart = -1;
+        mSuggestionQuery = null;
+        if (mSuggestionLoader != null) {
+            mSuggestionLoader.cancel();
+        }
+        if (mSuggestionListener != null) {
+            mSuggestionListener.onSuggestionsDismissed();
+        }
+    }
+
+    public UserNameCache getUserNameCache() {
+        return mNameCache;
+    }
+
+    /**
+     * 获取缓存的名字,没有缓存则请求获取并返回占位名字
+     */
+    private String getUserNameOrRequest(long userId) {
+        String userName = mNameCache.get(userId);
+        if (userName != null) {
+            return userName;
+        }
+        if (mNameLoader != null) {
+            mNameLoader.request(userId);
+        }
+        return MentionEngine.placeholderName(userId);
+    }
+
+    /**
+     * 名字获取完成,把还是占位文本的@好友替换成名字
+     * 从后往前替换,前面@好友的下标不受影响
+     */
+    private void applyUserNames(Map<Long, String> userNames) {
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        int renamed = 0;
+        // 改名不是用户的编辑:整体只刷新一次,也不作为撤销步骤
+        beginMentionBatch();
+        if (mHistory != null) {
+            mHistory.setSilent(true);
+        }
+        try {
+            for (int slot = index.size() - 1; slot >= 0; slot--) {
+                XlpsFriend xlpsFriend = index.get(slot);
+                if (!MentionEngine.isPlaceholder(xlpsFriend)) {
+                    continue;
+                }
+                int start = index.start(slot);
+                int end = index.end(slot);
+                String objectText = mEngine.prepareRename(slot, userNames.get(xlpsFriend.mUserId),
+                        mLengthCounter.getPolicy(), getMaxNum() - mLengthCounter.getLength());
+                if (objectText != null) {
+                    getText().replace(start, end, objectText);
+                    renamed++;
+                }
+            }
+        } finally {
+            if (mHistory != null) {
+                mHistory.setSilent(false);
+            }
+            endMentionBatch();
+        }
+        MentionTrace.debug("user_names_applied", userNames.size(), renamed, index.size());
+    }
+
+    @Override
+    public boolean onTextContextMenuItem(int id) {
+        switch (id) {
+            case android.R.id.copy:
+            case android.R.id.cut:
+                if (copyToClipboard(id == android.R.id.cut)) {
+                    return true;
+                }
+                break;
+            case android.R.id.paste:
+                if (pasteFromClipboard()) {
+                    return true;
+                }
+                break;
+        }
+        return super.onTextContextMenuItem(id);
+    }
+
+    /**
+     * 复制/剪切选中的文本,剪贴板里是不带高亮的纯文本,@好友编码后放在同一条目的Intent中(见{@link MentionClip}),
+     * 不修改输入框的span;完成后和系统一样收起选区,浮动工具栏随之消失
+     *
+     * @return 是否已处理, 没有选中文本时交给系统处理
+     */
+    private boolean copyToClipboard(boolean cut) {
+        int selectionStart = getSelectionStart();
+        int selectionEnd = getSelectionEnd();
+        int start = Math.max(0, Math.min(selectionStart, selectionEnd));
+        int end = Math.max(0, Math.max(selectionStart, selectionEnd));
+        ClipboardManager clipboard = (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        if (start == end || clipboard == null) {
+            return false;
+        }
+        MentionClip snapshot = MentionClip.snapshot(getText(), mEngine.getIndex(), start, end);
+        String encoded = snapshot.getMentionCount() > 0 ? snapshot.encode() : null;
+        if (encoded == null) {
+            clipboard.setPrimaryClip(ClipData.newPlainText(null, snapshot.getText()));
+        } else {
+            Intent mentions = new Intent().putExtra(MentionClip.EXTRA_MENTIONS, encoded);
+            clipboard.setPrimaryClip(new ClipData(null,
+                    new String[]{ClipDescription.MIMETYPE_TEXT_PLAIN, MentionClip.MIME_TYPE},
+                    new ClipData.Item(snapshot.getText(), mentions, null)));
+        }
+        MentionTrace.info(cut ? "cut" : "copy", start, end, snapshot.getMentionCount());
+        if (cut) {
+            getText().delete(start, end);
+            setSelection(Math.min(start, getText().length()));
+        } else {
+            setSelection(end);
+        }
+        return true;
+    }
+
+    /**
+     * 粘贴剪贴板的文本,本应用复制的按条目中的快照还原@好友,其他文本中的"@用户id "一次扫描解析成@好友;
+     * 粘贴后选区收起到粘贴的文本后面
+     *
+     * @return 是否已处理, 剪贴板没有文本时交给系统处理
+     */
+    private boolean pasteFromClipboard() {
+        ClipboardManager clipboard = (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        ClipData clip = clipboard != null ? clipboard.getPrimaryClip() : null;
+        if (clip == null) {
+            return false;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < clip.getItemCount(); i++) {
+            CharSequence item = clip.getItemAt(i).coerceToText(getContext());
+            if (!TextUtils.isEmpty(item)) {
+                // 与系统粘贴一致,多项之间换行
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(item);
+            }
+        }
+        if (text.length() == 0) {
+            return false;
+        }
+        ClipDescription description = clip.getDescription();
+        if (description != null && description.hasMimeType(MentionClip.MIME_TYPE) && clip.getItemCount() == 1) {
+            // 本应用复制的内容,按条目中的快照还原@好友
+            Intent mentions = clip.getItemAt(0).getIntent();
+            MentionClip snapshot = MentionClip.decode(
+                    mentions != null ? mentions.getStringExtra(MentionClip.EXTRA_MENTIONS) : null, text);
+            if (snapshot != null) {
+                pasteWithMentions(snapshot.getText(), snapshot.copyMentions());
+                return true;
+            }
+        }
+        // 外部文本里的"@数字 "不一定是@好友,只还原已知名字的用户
+        WireTextParser parser = WireTextParser.parse(text, mEngine.getRules(), new WireTextParser.EntityResolver() {
+            @Override
+            public String getName(MentionRule rule, long id) {
+                return rule.isUser() ? mNameCache.get(id) : null;
+            }
+        });
+        pasteWithMentions(parser.getText(), parser.getIndex());
+        return true;
+    }
+
+    /**
+     * 用text替换选中的文本,一次加入其中的@好友
+     * <p>
+     * 整段文本只调用一次{@link Editable#replace},刷新UI、草稿、自动补全等在替换和加入@好友之后统一处理一次;
+     * 超过个数限制或已经@过的用户保留为普通文本
+     *
+     * @param mentions text中的@好友,位置相对text
+     */
+    private void pasteWithMentions(CharSequence text, MentionIndex<XlpsFriend> mentions) {
+        Editable editable = getText();
+        int selectionStart = getSelectionStart();
+        int selectionEnd = getSelectionEnd();
+        int start = Math.max(0, Math.min(selectionStart, selectionEnd));
+        int end = Math.max(0, Math.max(selectionStart, selectionEnd));
+        MentionIndex<XlpsFriend> accepted = mEngine.acceptPasted(mentions, start, end, mMaxAtCount);
+        int oldLength = editable.length();
+        mBulkEditing = true;
+        try {
+            editable.replace(start, end, text);
+        } finally {
+            mBulkEditing = false;
+        }
+        // InputFilter可能截短了粘贴的文本
+        int inserted = editable.length() - (oldLength - (end - start));
+        int added = mEngine.addAll(accepted, start, inserted);
+        if (mHistory != null) {
+            for (int i = 0; i < added; i++) {
+                mHistory.mentionAdded(accepted.get(i), start + accepted.start(i), start + accepted.end(i));
+            }
+        }
+        MentionTrace.info("paste", text.length(), inserted, added);
+        markRefreshRange(start, start + inserted);
+        setSelection(start + inserted);
+        handleAfterTextChanged();
+    }
+
+    public void setRefreshEditFinishListener(RefreshEditFinishListener refreshEditFinishListener) {
+        mRefreshEditFinishListener = refreshEditFinishListener;
+    }
+
     public interface RefreshEditFinishListener {
         public void onRefreshEditFinish();
     }
@@ -635,33 +1498,53 @@ public class RichEditText extends EditText {
             mListener = listener;
         }
 
+        /**
+         * 按输入框的{@link LengthPolicy}计数,超出时在字素边界截断,不会拆开表情
+         */
         @Override
         public CharSequence filter(CharSequence source, int start, int end, Spanned dest,
                                    int dstart, int dend) {
-            int keep = mMax - (dest.length() - (dend - dstart));
-            if (keep <= 0) {
-                if (mListener != null) {
-                    mListener.onOverLength();
-                }
-//
-                return "";
-            } else if (keep >= end - start) {
+            LengthPolicy policy = mLengthCounter.getPolicy();
+            int length = dest == getText() ? mLengthCounter.getLength() : policy.measure(dest);
+            int keep = mMax - (length - policy.measure(dest, dstart, dend));
+            int fitEnd = keep > 0 ? policy.fit(source, start, end, keep) : start;
+            if (fitEnd == end) {
                 return null; // keep original
-            } else {
-                keep += start;
-                if (Character.isHighSurrogate(source.charAt(keep - 1))) {
-                    --keep;
-                    if (keep == start) {
-                        return "";
-                    }
-                }
-                return source.subSequence(start, keep);
             }
+            if (mListener != null) {
+                mListener.onOverLength();
+            }
+            return fitEnd == start ? "" : source.subSequence(start, fitEnd);
         }
 
 
     }
 
+    /**
+     * 草稿恢复结果
+     */
+    public interface DraftRestoreListener {
+        /**
+         * @param restored 是否恢复了草稿,没有草稿、草稿无效或读取期间修改过文本时为false
+         */
+        void onDraftRestored(boolean restored);
+    }
+
+    /**
+     * 自动补全候选,在主线程回调
+     */
+    public interface SuggestionListener {
+        /**
+         * @param query 触发字符串之后已输入的内容
+         */
+        void onSuggestions(MentionRule rule, String query, List<XlpsFriend> candidates);
+
+        /**
+         * 光标离开了触发词,或触发词已被删除/补全
+         */
+        void onSuggestionsDismissed();
+    }
+
     public interface OverLengthListener {
         void onOverLength();
     }
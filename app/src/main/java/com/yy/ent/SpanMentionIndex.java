@@ -0,0 +1,100 @@
+package com.yy.ent;
+
+import android.text.Spanned;
+
+/**
+ * 基于span的@好友索引
+ * <p>
+ * 每个@好友对应一个{@link MentionSpan},位置直接读取span在Editable中的位置,
+ * 文本变化由Editable维护,索引只负责顺序和删除被完全覆盖的@好友
+ */
+class SpanMentionIndex extends MentionIndex<XlpsFriend> {
+    private final OwnedSpans mSpans;
+    private final int mForegroundColor;
+    private MentionRules mRules;
+    private MentionStylePool mStylePool;
+
+    SpanMentionIndex(OwnedSpans spans, MentionRules rules, MentionStylePool stylePool, int foregroundColor) {
+        mSpans = spans;
+        mRules = rules;
+        mStylePool = stylePool;
+        mForegroundColor = foregroundColor;
+    }
+
+    /**
+     * 之后创建的span按新规则着色
+     */
+    void setRules(MentionRules rules) {
+        mRules = rules;
+    }
+
+    /**
+     * 之后创建的span使用新的样式池
+     */
+    void setStylePool(MentionStylePool stylePool) {
+        mStylePool = stylePool;
+    }
+
+    @Override
+    public int start(int slot) {
+        return mSpans.getSpanStart(get(slot));
+    }
+
+    @Override
+    public int end(int slot) {
+        return mSpans.getSpanEnd(get(slot));
+    }
+
+    @Override
+    public int add(XlpsFriend item, int start, int end) {
+        mSpans.set(item, mStylePool.newMentionSpan(item, mRules, mForegroundColor), start, end,
+                Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        return super.add(item, start, end);
+    }
+
+    @Override
+    public int addAll(MentionIndex<? extends XlpsFriend> source, int offset, int maxEnd) {
+        for (int i = 0; i < source.size() && source.end(i) + offset <= maxEnd; i++) {
+            XlpsFriend item = source.get(i);
+            mSpans.set(item, mStylePool.newMentionSpan(item, mRules, mForegroundColor),
+                    source.start(i) + offset, source.end(i) + offset, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return super.addAll(source, offset, maxEnd);
+    }
+
+    @Override
+    public void removeRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            mSpans.remove(get(i));
+        }
+        super.removeRange(from, to);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size(); i++) {
+            mSpans.remove(get(i));
+        }
+        super.clear();
+    }
+
+    /**
+     * Editable会自动平移span,无需记录平移量
+     */
+    @Override
+    public void shift(int offset, int delta) {
+    }
+
+    /**
+     * 文本变化之后span已被移动或回收,所以在变化之前删除被完全覆盖的@好友
+     */
+    @Override
+    public int beforeReplace(int start, int before, int count) {
+        return before != 0 ? removeCovered(start, start + before) : 0;
+    }
+
+    @Override
+    public int replace(int start, int before, int count) {
+        return 0;
+    }
+}
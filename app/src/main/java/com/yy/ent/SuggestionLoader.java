@@ -0,0 +1,106 @@
+package com.yy.ent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在后台线程查询自动补全候选,结果回到主线程
+ * <p>
+ * 每次查询递增序号,新的查询或{@link #cancel()}会使之前的查询失效:
+ * 还没开始的直接跳过,已经查完的结果丢弃,不会回调过期的候选
+ * <p>
+ * 除了后台线程里的{@link CandidateSource#query(MentionRule, String, int)},其他方法都只在主线程调用
+ */
+public class SuggestionLoader {
+    public static final int DEFAULT_LIMIT = 20;
+
+    /**
+     * 候选查询完成,在主线程回调
+     */
+    public interface Listener {
+        void onSuggestions(MentionRule rule, String query, List<XlpsFriend> candidates);
+    }
+
+    private final CandidateSource mSource;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final Listener mListener;
+    private final int mLimit;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    public SuggestionLoader(CandidateSource source, Executor backgroundExecutor, Executor mainExecutor,
+                            Listener listener) {
+        this(source, backgroundExecutor, mainExecutor, listener, DEFAULT_LIMIT);
+    }
+
+    public SuggestionLoader(CandidateSource source, Executor backgroundExecutor, Executor mainExecutor,
+                            Listener listener, int limit) {
+        mSource = source;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mListener = listener;
+        mLimit = Math.max(1, limit);
+    }
+
+    /**
+     * 查询候选,之前还没回调的查询作废
+     */
+    public void query(MentionRule rule, String query) {
+        int generation = mGeneration.incrementAndGet();
+        mBackgroundExecutor.execute(new QueryTask(generation, rule, query));
+    }
+
+    /**
+     * 作废所有还没回调的查询
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    private boolean isCurrent(int generation) {
+        return mGeneration.get() == generation;
+    }
+
+    /**
+     * 在后台线程查询候选,结果交回主线程
+     */
+    private class QueryTask implements Runnable {
+        private final int mGenerationAtStart;
+        private final MentionRule mRule;
+        private final String mQuery;
+
+        QueryTask(int generation, MentionRule rule, String query) {
+            mGenerationAtStart = generation;
+            mRule = rule;
+            mQuery = query;
+        }
+
+        @Override
+        public void run() {
+            if (!isCurrent(mGenerationAtStart)) {
+                return;
+            }
+            List<XlpsFriend> candidates = null;
+            try {
+                candidates = mSource.query(mRule, mQuery, mLimit);
+            } catch (RuntimeException e) {
+                MentionTrace.info("suggestions_failed", mQuery.length(), 0, 0);
+            }
+            if (!isCurrent(mGenerationAtStart)) {
+                return;
+            }
+            final List<XlpsFriend> result = candidates != null ? candidates : Collections.<XlpsFriend>emptyList();
+            mMainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (isCurrent(mGenerationAtStart)) {
+                        MentionTrace.debug("suggestions_loaded", mQuery.length(), result.size(), 0);
+                        mListener.onSuggestions(mRule, mQuery, result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.yy.ent;
+
+/**
+ * 检测光标前面正在输入的触发词,如"@ab"、"#to"
+ * <p>
+ * 只扫描光标前面不超过{@link #MAX_QUERY_LENGTH}个字符,所有规则的触发字符串由同一个
+ * {@link TriggerMatcher}识别;结果保存在字段中,每次按键检测不创建对象
+ * <p>
+ * 触发字符串前面必须是文本开头或空白(避免邮箱地址误触发),查询内容不能包含空白,也不能跨过已有的@好友
+ */
+public class TriggerDetector {
+    public static final int MAX_QUERY_LENGTH = 32;
+
+    private final MentionRules mRules;
+    private final TriggerMatcher mMatcher;
+    private final int mMaxTriggerLength;
+    private boolean mActive;
+    private int mRuleIndex;
+    private int mTriggerStart;
+    private int mQueryStart;
+    private int mQueryEnd;
+
+    public TriggerDetector(MentionRules rules) {
+        mRules = rules;
+        mMatcher = rules.getTriggerMatcher();
+        int maxTriggerLength = 0;
+        for (int i = 0; i < rules.size(); i++) {
+            maxTriggerLength = Math.max(maxTriggerLength, rules.get(i).getTrigger().length());
+        }
+        mMaxTriggerLength = maxTriggerLength;
+    }
+
+    public MentionRules getRules() {
+        return mRules;
+    }
+
+    /**
+     * 检测光标cursor前面的触发词
+     *
+     * @param index 已有的@好友,查询不能跨过@好友
+     * @return 是否有正在输入的触发词
+     */
+    public boolean detect(CharSequence text, int cursor, MentionIndex<XlpsFriend> index) {
+        mActive = false;
+        if (cursor <= 0 || cursor > text.length()) {
+            return false;
+        }
+        int windowStart = Math.max(0, cursor - MAX_QUERY_LENGTH - mMaxTriggerLength);
+        int slot = index.lowerBound(cursor) - 1;
+        if (slot >= 0) {
+            if (index.end(slot) > cursor) {
+                // 光标在@好友中间
+                return false;
+            }
+            windowStart = Math.max(windowStart, index.end(slot));
+        }
+        int state = TriggerMatcher.ROOT;
+        for (int i = windowStart; i < cursor; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                mActive = false;
+                state = TriggerMatcher.ROOT;
+                continue;
+            }
+            state = mMatcher.next(state, c);
+            int pattern = mMatcher.output(state);
+            if (pattern < 0) {
+                continue;
+            }
+            int triggerStart = i + 1 - mRules.get(pattern).getTrigger().length();
+            if (triggerStart >= windowStart
+                    && (triggerStart == 0 || Character.isWhitespace(text.charAt(triggerStart - 1)))) {
+                mActive = true;
+                mRuleIndex = pattern;
+                mTriggerStart = triggerStart;
+                mQueryStart = i + 1;
+            }
+        }
+        if (mActive && cursor - mQueryStart > MAX_QUERY_LENGTH) {
+            mActive = false;
+        }
+        mQueryEnd = cursor;
+        return mActive;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    public MentionRule getRule() {
+        return mRules.get(mRuleIndex);
+    }
+
+    /**
+     * 触发字符串的起始位置
+     */
+    public int getTriggerStart() {
+        return mTriggerStart;
+    }
+
+    /**
+     * 查询内容的起始位置(触发字符串之后)
+     */
+    public int getQueryStart() {
+        return mQueryStart;
+    }
+
+    /**
+     * 查询内容的结束位置,即光标位置
+     */
+    public int getQueryEnd() {
+        return mQueryEnd;
+    }
+}
@@ -0,0 +1,164 @@
+package com.yy.ent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 多个触发字符串(如"@"、"#"、"$")的Aho-Corasick自动机,一次扫描找出所有规则的匹配
+ * <p>
+ * 状态用int表示,可以跨分段逐字符推进({@link #next(int, char)}),扫描过程不创建对象
+ */
+public class TriggerMatcher {
+    public static final int ROOT = 0;
+
+    /**
+     * 匹配回调
+     */
+    public interface Callback {
+        /**
+         * @param pattern 匹配的字符串下标
+         * @param start   匹配的起始位置
+         * @param end     匹配的结束位置(不包含)
+         */
+        void onMatch(int pattern, int start, int end);
+    }
+
+    private final String[] mPatterns;
+    private final char[][] mEdgeChars;// 每个状态的出边字符,已排序
+    private final int[][] mEdgeTargets;
+    private final int[] mFail;
+    private final int[] mOutput;// 以该状态结尾的最长字符串下标,没有为-1
+
+    public TriggerMatcher(String... patterns) {
+        mPatterns = patterns.clone();
+        ArrayList<StringBuilder> chars = new ArrayList<StringBuilder>();
+        ArrayList<int[]> targets = new ArrayList<int[]>();
+        ArrayList<Integer> outputs = new ArrayList<Integer>();
+        chars.add(new StringBuilder());
+        targets.add(new int[0]);
+        outputs.add(-1);
+        // 建trie
+        for (int p = 0; p < patterns.length; p++) {
+            String pattern = patterns[p];
+            if (pattern == null || pattern.length() == 0) {
+                throw new IllegalArgumentException("empty trigger");
+            }
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int edge = chars.get(state).indexOf(String.valueOf(c));
+                if (edge >= 0) {
+                    state = targets.get(state)[edge];
+                } else {
+                    int next = chars.size();
+                    chars.add(new StringBuilder());
+                    targets.add(new int[0]);
+                    outputs.add(-1);
+                    chars.get(state).append(c);
+                    int[] old = targets.get(state);
+                    int[] grown = Arrays.copyOf(old, old.length + 1);
+                    grown[old.length] = next;
+                    targets.set(state, grown);
+                    state = next;
+                }
+            }
+            if (outputs.get(state) < 0) {
+                outputs.set(state, p);
+            }
+        }
+        int count = chars.size();
+        mEdgeChars = new char[count][];
+        mEdgeTargets = new int[count][];
+        mFail = new int[count];
+        mOutput = new int[count];
+        for (int s = 0; s < count; s++) {
+            sortEdges(s, chars.get(s).toString().toCharArray(), targets.get(s));
+            mOutput[s] = outputs.get(s);
+        }
+        // 按层计算失败指针,没有自己输出的状态继承失败状态的输出
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        for (int target : mEdgeTargets[ROOT]) {
+            mFail[target] = ROOT;
+            queue[tail++] = target;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int e = 0; e < mEdgeChars[state].length; e++) {
+                int target = mEdgeTargets[state][e];
+                mFail[target] = next(mFail[state], mEdgeChars[state][e]);
+                if (mOutput[target] < 0) {
+                    mOutput[target] = mOutput[mFail[target]];
+                }
+                queue[tail++] = target;
+            }
+        }
+    }
+
+    public int getPatternCount() {
+        return mPatterns.length;
+    }
+
+    public String getPattern(int pattern) {
+        return mPatterns[pattern];
+    }
+
+    /**
+     * 从state读入字符c后的状态
+     */
+    public int next(int state, char c) {
+        while (true) {
+            int edge = Arrays.binarySearch(mEdgeChars[state], c);
+            if (edge >= 0) {
+                return mEdgeTargets[state][edge];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = mFail[state];
+        }
+    }
+
+    /**
+     * 以state结尾的最长匹配字符串下标,没有返回-1
+     */
+    public int output(int state) {
+        return mOutput[state];
+    }
+
+    /**
+     * 扫描text的[start, end),每个位置只回调结尾在此处的最长匹配
+     */
+    public void scan(CharSequence text, int start, int end, Callback callback) {
+        int state = ROOT;
+        for (int i = start; i < end; i++) {
+            state = next(state, text.charAt(i));
+            int pattern = mOutput[state];
+            if (pattern >= 0) {
+                callback.onMatch(pattern, i + 1 - mPatterns[pattern].length(), i + 1);
+            }
+        }
+    }
+
+    private void sortEdges(int state, char[] chars, int[] targets) {
+        Integer[] order = new Integer[chars.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final char[] keys = chars;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return keys[a] - keys[b];
+            }
+        });
+        mEdgeChars[state] = new char[chars.length];
+        mEdgeTargets[state] = new int[chars.length];
+        for (int i = 0; i < order.length; i++) {
+            mEdgeChars[state][i] = chars[order[i]];
+            mEdgeTargets[state][i] = targets[order[i]];
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.yy.ent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 用户id到名字的LRU缓存,超过容量时淘汰最久没有访问的
+ * <p>
+ * 只在主线程访问,不做同步
+ */
+public class UserNameCache implements WireTextParser.NameResolver {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final LinkedHashMap<Long, String> mNames;
+
+    public UserNameCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public UserNameCache(final int capacity) {
+        mNames = new LinkedHashMap<Long, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return 名字, 没有缓存返回null
+     */
+    public String get(long userId) {
+        return mNames.get(userId);
+    }
+
+    public void put(long userId, String userName) {
+        if (userName != null && userName.length() > 0) {
+            mNames.put(userId, userName);
+        }
+    }
+
+    public void putAll(Map<Long, String> userNames) {
+        for (Map.Entry<Long, String> entry : userNames.entrySet()) {
+            if (entry.getKey() != null) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public int size() {
+        return mNames.size();
+    }
+
+    public void clear() {
+        mNames.clear();
+    }
+
+    @Override
+    public String getUserName(long userId) {
+        return get(userId);
+    }
+}
@@ -0,0 +1,190 @@
+package com.yy.ent;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * 异步批量获取用户名字
+ * <p>
+ * 同一轮主线程消息里请求的id合并成一批,在后台线程调用{@link UserNameResolver},
+ * 结果回到主线程写入{@link UserNameCache}再通知{@link Listener};
+ * 已缓存、正在请求中的id不会重复请求
+ * <p>
+ * 请求失败或resolver没有返回的id记为未获取,不自动重试(避免离线时不断请求),
+ * 由使用者在合适的时机(如重新回到页面)调用{@link #retryUnresolved()}重新请求
+ * <p>
+ * 除了后台线程里的{@link UserNameResolver#getUserNames(long[])},其他方法都只在主线程调用
+ */
+public class UserNameLoader {
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * 名字获取完成,在主线程回调
+     */
+    public interface Listener {
+        void onUserNamesLoaded(Map<Long, String> userNames);
+    }
+
+    private final UserNameResolver mResolver;
+    private final UserNameCache mCache;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+    private final Listener mListener;
+    private final int mBatchSize;
+    private final Set<Long> mQueued = new LinkedHashSet<Long>();// 等待下一批请求的id
+    private final Set<Long> mLoading = new HashSet<Long>();// 正在请求的id
+    private final Set<Long> mUnresolved = new LinkedHashSet<Long>();// 请求失败或没有返回名字的id
+    private boolean mFlushScheduled;
+    private boolean mReleased;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public UserNameLoader(UserNameResolver resolver, UserNameCache cache, Executor backgroundExecutor,
+                          Executor mainExecutor, Listener listener) {
+        this(resolver, cache, backgroundExecutor, mainExecutor, listener, DEFAULT_BATCH_SIZE);
+    }
+
+    public UserNameLoader(UserNameResolver resolver, UserNameCache cache, Executor backgroundExecutor,
+                          Executor mainExecutor, Listener listener, int batchSize) {
+        mResolver = resolver;
+        mCache = cache;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+        mListener = listener;
+        mBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * 请求获取名字,在当前主线程消息结束后和其他请求一起发出
+     */
+    public void request(long userId) {
+        if (mReleased || mCache.get(userId) != null || mLoading.contains(userId)) {
+            return;
+        }
+        mUnresolved.remove(userId);
+        mQueued.add(userId);
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mMainExecutor.execute(mFlush);
+        }
+    }
+
+    /**
+     * 等待回调的id个数,包括还没发出的
+     */
+    public int getPendingCount() {
+        return mQueued.size() + mLoading.size();
+    }
+
+    /**
+     * 之前请求失败或没有返回名字的id个数
+     */
+    public int getUnresolvedCount() {
+        return mUnresolved.size();
+    }
+
+    /**
+     * 重新请求之前失败或没有返回名字的id,和其他请求一样合并成批
+     */
+    public void retryUnresolved() {
+        if (mReleased || mUnresolved.isEmpty()) {
+            return;
+        }
+        Long[] userIds = mUnresolved.toArray(new Long[mUnresolved.size()]);
+        mUnresolved.clear();
+        MentionTrace.info("user_names_retry", userIds.length, 0, 0);
+        for (Long userId : userIds) {
+            request(userId);
+        }
+    }
+
+    /**
+     * 不再发出请求,已发出的请求结果直接丢弃,例如控件销毁时调用
+     */
+    public void release() {
+        mReleased = true;
+        mQueued.clear();
+        mLoading.clear();
+        mUnresolved.clear();
+    }
+
+    private void flush() {
+        mFlushScheduled = false;
+        if (mReleased || mQueued.isEmpty()) {
+            return;
+        }
+        int remaining = mQueued.size();
+        long[] batch = null;
+        int size = 0;
+        for (Long userId : mQueued) {
+            if (batch == null) {
+                batch = new long[Math.min(mBatchSize, remaining)];
+            }
+            batch[size++] = userId;
+            mLoading.add(userId);
+            remaining--;
+            if (size == batch.length) {
+                mBackgroundExecutor.execute(new LoadTask(batch));
+                batch = null;
+                size = 0;
+            }
+        }
+        mQueued.clear();
+        MentionTrace.debug("user_names_request", mLoading.size(), mBatchSize, 0);
+    }
+
+    private void deliver(long[] userIds, Map<Long, String> userNames) {
+        if (mReleased) {
+            return;
+        }
+        for (long userId : userIds) {
+            mLoading.remove(userId);
+            if (userNames.get(userId) == null) {
+                mUnresolved.add(userId);
+            }
+        }
+        mCache.putAll(userNames);
+        MentionTrace.debug("user_names_loaded", userIds.length, userNames.size(), mUnresolved.size());
+        if (!userNames.isEmpty()) {
+            mListener.onUserNamesLoaded(userNames);
+        }
+    }
+
+    /**
+     * 在后台线程请求一批名字,结果交回主线程
+     */
+    private class LoadTask implements Runnable {
+        private final long[] mUserIds;
+
+        LoadTask(long[] userIds) {
+            mUserIds = userIds;
+        }
+
+        @Override
+        public void run() {
+            Map<Long, String> userNames = null;
+            try {
+                userNames = mResolver.getUserNames(mUserIds);
+            } catch (RuntimeException e) {
+                // 获取失败保留占位文本,记为未获取,retryUnresolved时重新请求
+                MentionTrace.info("user_names_failed", mUserIds.length, 0, 0);
+            }
+            final Map<Long, String> result = userNames != null ? userNames : Collections.<Long, String>emptyMap();
+            mMainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(mUserIds, result);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.yy.ent;
+
+import java.util.Map;
+
+/**
+ * 根据用户id批量获取名字,在后台线程调用,可以直接请求网络或数据库
+ */
+public interface UserNameResolver {
+    /**
+     * @return 用户id到名字的映射, 获取不到的id可以不包含
+     */
+    Map<Long, String> getUserNames(long[] userIds);
+}
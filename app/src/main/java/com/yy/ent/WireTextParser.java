@@ -0,0 +1,228 @@
+package com.yy.ent;
+
+/**
+ * 把{@link MentionEngine#getAtFriendText(CharSequence)}生成的"@用户id "文本还原成显示文本和@好友索引
+ * <p>
+ * 一次线性扫描同时生成显示文本和索引,不依赖保存下来的startPos/endPos;
+ * 文本可以分段调用{@link #feed(CharSequence, int, int)},最后调用{@link #finish()}
+ * <p>
+ * 有多种规则({@link MentionRules})时所有序列化前缀由同一个{@link TriggerMatcher}识别,仍然只扫描一遍。
+ * 只有"前缀"+数字+空格且名字能解析出来的才还原,其余内容原样保留
+ */
+public class WireTextParser {
+
+    /**
+     * 根据用户id获取显示的名字
+     */
+    public interface NameResolver {
+        /**
+         * @return 名字, 不包含"@"和结尾的空格;返回null则原样保留"@用户id "
+         */
+        String getUserName(long userId);
+    }
+
+    /**
+     * 根据规则和id获取显示的名字
+     */
+    public interface EntityResolver {
+        /**
+         * @return 名字, 不包含触发字符串和结尾的空格;返回null则原样保留
+         */
+        String getName(MentionRule rule, long id);
+    }
+
+    private static final int STATE_TEXT = 0;// 普通文本
+    private static final int STATE_RULE = 1;// 读到前缀,如"@"
+    private static final int STATE_SIGN = 2;// 读到"@-"
+    private static final int STATE_ID = 3;// 读到用户id的数字
+
+    private final MentionRules mRules;
+    private final TriggerMatcher mMatcher;
+    private final EntityResolver mResolver;
+    private final StringBuilder mText;
+    private final MentionIndex<XlpsFriend> mIndex = new MentionIndex<XlpsFriend>();
+    private final StringBuilder mToken = new StringBuilder();// 还未确定的"@用户id"原文,可能跨分段
+    private int mState = STATE_TEXT;
+    private int mMatchState = TriggerMatcher.ROOT;// 普通文本中前缀的匹配状态
+    private MentionRule mRule;// 正在读取的前缀对应的规则
+    private long mValue;// 按负数累加,Long.MIN_VALUE也不会溢出
+    private boolean mNegative;
+    private boolean mLeadingZero;
+    private boolean mFinished;
+
+    public WireTextParser(NameResolver resolver) {
+        this(resolver, 16);
+    }
+
+    /**
+     * @param capacity 预计的文本长度
+     */
+    public WireTextParser(final NameResolver resolver, int capacity) {
+        this(MentionRules.users(0), new EntityResolver() {
+            @Override
+            public String getName(MentionRule rule, long id) {
+                return resolver.getUserName(id);
+            }
+        }, capacity);
+    }
+
+    /**
+     * @param capacity 预计的文本长度
+     */
+    public WireTextParser(MentionRules rules, EntityResolver resolver, int capacity) {
+        mRules = rules;
+        mMatcher = rules.getWireMatcher();
+        mResolver = resolver;
+        mText = new StringBuilder(capacity);
+    }
+
+    /**
+     * 一次性解析整段文本
+     */
+    public static WireTextParser parse(CharSequence wireText, NameResolver resolver) {
+        return new WireTextParser(resolver, wireText.length()).feed(wireText).finish();
+    }
+
+    /**
+     * 按多种规则一次性解析整段文本
+     */
+    public static WireTextParser parse(CharSequence wireText, MentionRules rules, EntityResolver resolver) {
+        return new WireTextParser(rules, resolver, wireText.length()).feed(wireText).finish();
+    }
+
+    public WireTextParser feed(CharSequence chunk) {
+        return feed(chunk, 0, chunk.length());
+    }
+
+    /**
+     * 解析chunk的[start, end)部分,未结束的"@用户id"留到下一段继续解析
+     */
+    public WireTextParser feed(CharSequence chunk, int start, int end) {
+        if (mFinished) {
+            throw new IllegalStateException("parser already finished");
+        }
+        int runStart = start;// 普通文本按区间整体追加
+        for (int i = start; i < end; i++) {
+            char c = chunk.charAt(i);
+            if (mState == STATE_TEXT) {
+                mMatchState = mMatcher.next(mMatchState, c);
+                int pattern = mMatcher.output(mMatchState);
+                if (pattern >= 0) {
+                    // 前缀可能跨分段,统一从已输出的文本末尾移到mToken
+                    mText.append(chunk, runStart, i + 1);
+                    runStart = i + 1;
+                    beginToken(mRules.get(pattern));
+                }
+                continue;
+            }
+            if (c == '-' && mState == STATE_RULE) {
+                mToken.append(c);
+                mNegative = true;
+                mState = STATE_SIGN;
+            } else if (c >= '0' && c <= '9' && appendDigit(c - '0')) {
+                mToken.append(c);
+                mState = STATE_ID;
+            } else if (c == ' ' && mState == STATE_ID) {
+                completeToken();
+                runStart = i + 1;
+            } else {
+                // 不是"前缀+id ",已读的部分按普通文本处理,当前字符重新解析(可能又是前缀)
+                flushToken();
+                runStart = i;
+                i--;
+            }
+        }
+        if (mState == STATE_TEXT) {
+            mText.append(chunk, runStart, end);
+        }
+        return this;
+    }
+
+    /**
+     * 结束解析,没有以空格结束的"@用户id"按普通文本处理
+     */
+    public WireTextParser finish() {
+        if (!mFinished) {
+            flushToken();
+            mFinished = true;
+        }
+        return this;
+    }
+
+    /**
+     * 显示的文本
+     */
+    public CharSequence getText() {
+        return mText;
+    }
+
+    /**
+     * 按位置排序的@好友,位置对应{@link #getText()}
+     */
+    public MentionIndex<XlpsFriend> getIndex() {
+        return mIndex;
+    }
+
+    private void beginToken(MentionRule rule) {
+        int prefixStart = mText.length() - rule.getWirePrefix().length();
+        mToken.append(mText, prefixStart, mText.length());
+        mText.setLength(prefixStart);
+        mRule = rule;
+        mState = STATE_RULE;
+        mValue = 0;
+        mNegative = false;
+        mLeadingZero = false;
+    }
+
+    /**
+     * 累加一位数字,溢出或有多余的前导0时返回false
+     */
+    private boolean appendDigit(int digit) {
+        if (mState == STATE_ID) {
+            if (mLeadingZero || mValue < (Long.MIN_VALUE + digit) / 10) {
+                return false;
+            }
+        } else {
+            mLeadingZero = digit == 0;
+        }
+        mValue = mValue * 10 - digit;
+        return true;
+    }
+
+    private void completeToken() {
+        mToken.append(' ');
+        String userName = null;
+        if (mNegative ? mValue != 0 : mValue != Long.MIN_VALUE) {
+            long userId = mNegative ? mValue : -mValue;
+            userName = mResolver.getName(mRule, userId);
+            if (userName != null && userName.length() > 0) {
+                XlpsFriend xlpsFriend = new XlpsFriend();
+                xlpsFriend.mRule = mRule.getTrigger();
+                xlpsFriend.mUserId = userId;
+                xlpsFriend.startPos = mText.length();
+                mText.append(mRule.getTrigger()).append(userName).append(' ');
+                xlpsFriend.endPos = mText.length();
+                xlpsFriend.mUserName = mText.substring(xlpsFriend.startPos, xlpsFriend.endPos);
+                mIndex.add(xlpsFriend, xlpsFriend.startPos, xlpsFriend.endPos);
+            } else {
+                userName = null;
+            }
+        }
+        if (userName == null) {
+            mText.append(mToken);
+        }
+        mToken.setLength(0);
+        mState = STATE_TEXT;
+        mMatchState = TriggerMatcher.ROOT;
+    }
+
+    /**
+     * 未完成的前缀按普通文本输出
+     */
+    private void flushToken() {
+        mText.append(mToken);
+        mToken.setLength(0);
+        mState = STATE_TEXT;
+        mMatchState = TriggerMatcher.ROOT;
+    }
+}
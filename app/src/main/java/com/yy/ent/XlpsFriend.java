@@ -0,0 +1,88 @@
+package com.yy.ent;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+
+/**
+ * @好友数据
+ */
+public class XlpsFriend implements Serializable {
+    // 与原来的RichEditText.XlpsFriend相同,字段也没有变,旧数据可以用LegacyInputStream读出
+    private static final long serialVersionUID = -740839680268310082L;
+    private static final String LEGACY_CLASS_NAME = "com.yy.ent.RichEditText$XlpsFriend";
+    public final static int FLAG_NORMAL = 1000;//正常状态
+    public final static int FLAG_MARK = 1001;//被标记,准备清除
+    public final static int FLAG_CLEAR = 1002;//标记清除
+    public int mFlag = FLAG_NORMAL;
+    public String mRule = "@";// 匹配规则
+    public long mUserId;//用户id
+    public String mUserName;// 高亮文本
+    public int startPos;
+    public int endPos;
+
+    public XlpsFriend copy() {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mFlag = mFlag;
+        xlpsFriend.mRule = mRule;
+        xlpsFriend.mUserId = mUserId;
+        xlpsFriend.mUserName = mUserName;
+        xlpsFriend.startPos = startPos;
+        xlpsFriend.endPos = endPos;
+        return xlpsFriend;
+    }
+
+    public JSONObject getJsonObject() {
+        JSONObject jsonObject = null;
+        try {
+            jsonObject = new JSONObject();
+            jsonObject.put("flag", mFlag);
+            jsonObject.put("rule", mRule);
+            jsonObject.put("user_id", mUserId);
+            jsonObject.put("user_name", mUserName);
+            jsonObject.put("start_pos", startPos);
+            jsonObject.put("end_pos", endPos);
+        } catch (JSONException e) {
+            jsonObject = null;
+        }
+        return jsonObject;
+    }
+
+    public static XlpsFriend parseJSONObject(JSONObject jsonObject) {
+        if (jsonObject != null) {
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mFlag = jsonObject.optInt("flag");
+            xlpsFriend.mRule = jsonObject.optString("rule");
+            xlpsFriend.mUserId = jsonObject.optLong("user_id");
+            xlpsFriend.mUserName = jsonObject.optString("user_name");
+            xlpsFriend.startPos = jsonObject.optInt("start_pos");
+            xlpsFriend.endPos = jsonObject.optInt("end_pos");
+            return xlpsFriend;
+        }
+        return null;
+    }
+
+    /**
+     * 读取以前按RichEditText.XlpsFriend序列化保存的数据,读出的是{@link XlpsFriend}
+     */
+    public static class LegacyInputStream extends ObjectInputStream {
+
+        public LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (LEGACY_CLASS_NAME.equals(desc.getName())) {
+                return ObjectStreamClass.lookup(XlpsFriend.class);
+            }
+            return desc;
+        }
+    }
+}
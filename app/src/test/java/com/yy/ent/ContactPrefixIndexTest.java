@@ -0,0 +1,132 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * ContactPrefixIndex、SuggestionLoader 单元测试
+ */
+public class ContactPrefixIndexTest {
+
+    private static XlpsFriend contact(long userId, String name) {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mUserId = userId;
+        xlpsFriend.mUserName = name;
+        return xlpsFriend;
+    }
+
+    private static List<Long> ids(List<XlpsFriend> contacts) {
+        List<Long> ids = new ArrayList<Long>();
+        for (XlpsFriend contact : contacts) {
+            ids.add(contact.mUserId);
+        }
+        return ids;
+    }
+
+    private final ContactPrefixIndex mIndex = new ContactPrefixIndex(Arrays.asList(
+            contact(1, "Tom Smith"), contact(2, "tommy"), contact(3, "Anna"),
+            contact(4, "Smithers"), contact(5, "邓区")));
+
+    @Test
+    public void query_matchesNameAndWordPrefixes() throws Exception {
+        assertEquals(Arrays.asList(1L, 2L), ids(mIndex.query("TOM", 10)));
+        assertEquals(Arrays.asList(1L, 4L), ids(mIndex.query("smi", 10)));
+        assertEquals(Arrays.asList(1L), ids(mIndex.query("tom s", 10)));
+        assertEquals(Arrays.asList(5L), ids(mIndex.query("邓", 10)));
+        assertTrue(mIndex.query("zz", 10).isEmpty());
+        assertEquals(1, mIndex.query("", 1).size());
+        // 空前缀返回所有联系人,同一个联系人只出现一次
+        assertEquals(5, mIndex.query("", 10).size());
+    }
+
+    @Test
+    public void query_filtersByRule() throws Exception {
+        XlpsFriend topic = contact(6, "tomato");
+        topic.mRule = "#";
+        ContactPrefixIndex index = new ContactPrefixIndex(Arrays.asList(contact(1, "Tom Smith"), topic));
+        assertEquals(Arrays.asList(1L), ids(index.query(new MentionRule("@", 0), "tom", 10)));
+        assertEquals(Arrays.asList(6L), ids(index.query(new MentionRule("#", 0), "tom", 10)));
+        assertEquals(2, index.query("tom", 10).size());
+        assertTrue(index.query(new MentionRule("$", 0), "tom", 10).isEmpty());
+    }
+
+    @Test
+    public void query_ruleIsNotCrowdedOutByOtherRules() throws Exception {
+        List<XlpsFriend> contacts = new ArrayList<XlpsFriend>();
+        for (int i = 0; i < 1000; i++) {
+            contacts.add(contact(i, "tom" + i));
+        }
+        XlpsFriend topic = contact(5000, "tomz");
+        topic.mRule = "#";
+        contacts.add(topic);
+        ContactPrefixIndex index = new ContactPrefixIndex(contacts);
+        assertEquals(Arrays.asList(5000L), ids(index.query(new MentionRule("#", 0), "tom", 10)));
+        assertEquals(10, index.query(new MentionRule("@", 0), "tom", 10).size());
+    }
+
+    @Test
+    public void query_matchesLinearScanOnLargeList() throws Exception {
+        List<XlpsFriend> contacts = new ArrayList<XlpsFriend>();
+        for (int i = 0; i < 50000; i++) {
+            contacts.add(contact(i, "user" + Integer.toString(i * 7919 % 50000, 36)));
+        }
+        ContactPrefixIndex index = new ContactPrefixIndex(contacts);
+        for (String prefix : new String[]{"user", "user1", "userab", "usez"}) {
+            int expected = 0;
+            for (XlpsFriend contact : contacts) {
+                if (contact.mUserName.startsWith(prefix)) {
+                    expected++;
+                }
+            }
+            assertEquals(prefix, Math.min(expected, 100), index.query(prefix, 100).size());
+        }
+    }
+
+    @Test
+    public void loader_dropsStaleQueries() throws Exception {
+        final ArrayDeque<Runnable> main = new ArrayDeque<Runnable>();
+        final ArrayDeque<Runnable> background = new ArrayDeque<Runnable>();
+        final List<String> delivered = new ArrayList<String>();
+        SuggestionLoader loader = new SuggestionLoader(mIndex, queue(background), queue(main),
+                new SuggestionLoader.Listener() {
+                    @Override
+                    public void onSuggestions(MentionRule rule, String query, List<XlpsFriend> candidates) {
+                        delivered.add(query + ids(candidates));
+                    }
+                });
+        MentionRule rule = new MentionRule("@", 0);
+        loader.query(rule, "t");
+        background.poll().run();
+        loader.query(rule, "to");
+        loader.query(rule, "tomm");
+        while (!background.isEmpty()) {
+            background.poll().run();
+        }
+        while (!main.isEmpty()) {
+            main.poll().run();
+        }
+        assertEquals(Arrays.asList("tomm[2]"), delivered);
+
+        loader.query(rule, "a");
+        background.poll().run();
+        loader.cancel();
+        main.poll().run();
+        assertEquals(1, delivered.size());
+    }
+
+    private static Executor queue(final ArrayDeque<Runnable> queue) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queue.add(command);
+            }
+        };
+    }
+}
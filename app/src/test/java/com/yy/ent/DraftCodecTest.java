@@ -0,0 +1,110 @@
+package com.yy.ent;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * DraftCodec 单元测试
+ */
+public class DraftCodecTest {
+    private final StringBuilder mText = new StringBuilder();
+    private final MentionIndex<XlpsFriend> mIndex = new MentionIndex<XlpsFriend>();
+
+    private void append(String text) {
+        mText.append(text);
+    }
+
+    private XlpsFriend appendFriend(String rule, long userId, String name, int flag) {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mRule = rule;
+        xlpsFriend.mUserId = userId;
+        xlpsFriend.mFlag = flag;
+        xlpsFriend.mUserName = rule + name + " ";
+        xlpsFriend.startPos = mText.length();
+        mText.append(xlpsFriend.mUserName);
+        xlpsFriend.endPos = mText.length();
+        mIndex.add(xlpsFriend, xlpsFriend.startPos, xlpsFriend.endPos);
+        return xlpsFriend;
+    }
+
+    private ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(DraftCodec.maxEncodedSize(mText, mIndex));
+        DraftCodec.encode(mText, mIndex, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private void assertSameFriend(XlpsFriend expected, XlpsFriend actual) {
+        assertEquals(expected.mUserId, actual.mUserId);
+        assertEquals(expected.mFlag, actual.mFlag);
+        assertEquals(expected.mRule, actual.mRule);
+        assertEquals(expected.mUserName, actual.mUserName);
+        assertEquals(expected.startPos, actual.startPos);
+        assertEquals(expected.endPos, actual.endPos);
+    }
+
+    @Test
+    public void roundTrip_matchesJsonPath() throws Exception {
+        append("你好 😀 ");
+        appendFriend("@", 1, "邓区", XlpsFriend.FLAG_NORMAL);
+        append("and ");
+        appendFriend("@", Long.MIN_VALUE, "min", XlpsFriend.FLAG_MARK);
+        appendFriend("#", Long.MAX_VALUE, "topic", XlpsFriend.FLAG_CLEAR);
+        appendFriend("#", -1, "neg", XlpsFriend.FLAG_NORMAL);
+        append("\uD83D tail");
+
+        ByteBuffer buffer = encode();
+        StringBuilder text = new StringBuilder("prefix");
+        MentionIndex<XlpsFriend> index = new MentionIndex<XlpsFriend>();
+        DraftCodec.decode(buffer, text, index);
+        assertFalse(buffer.hasRemaining());
+        // 单独的代理字符写成'?'
+        assertEquals("prefix" + mText.toString().replace("\uD83D tail", "? tail"), text.toString());
+
+        JSONArray json = new JSONArray();
+        for (int i = 0; i < mIndex.size(); i++) {
+            json.put(mIndex.get(i).getJsonObject());
+        }
+        JSONArray parsed = new JSONArray(json.toString());
+        assertEquals(parsed.length(), index.size());
+        for (int i = 0; i < index.size(); i++) {
+            XlpsFriend expected = XlpsFriend.parseJSONObject(parsed.getJSONObject(i));
+            expected.startPos += 6;
+            expected.endPos += 6;
+            assertSameFriend(expected, index.get(i));
+            assertEquals(expected.startPos, index.start(i));
+        }
+    }
+
+    @Test
+    public void encode_isCompact() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            append("hello ");
+            appendFriend("@", 10000 + i, "user" + i, XlpsFriend.FLAG_NORMAL);
+        }
+        // 每个@好友: 距离1 + 长度1 + id3 + 状态1 + 规则1
+        assertEquals(1 + 2 + mText.length() + 1 + 100 * 7, encode().remaining());
+    }
+
+    @Test
+    public void decode_rejectsBadInput() throws Exception {
+        appendFriend("@", 1, "tom", XlpsFriend.FLAG_NORMAL);
+        ByteBuffer buffer = encode();
+        buffer.put(0, (byte) (DraftCodec.VERSION + 1));
+        try {
+            DraftCodec.decode(buffer, new StringBuilder(), new MentionIndex<XlpsFriend>());
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            DraftCodec.encode(mText, mIndex, ByteBuffer.allocate(4));
+            fail();
+        } catch (BufferOverflowException expected) {
+        }
+    }
+}
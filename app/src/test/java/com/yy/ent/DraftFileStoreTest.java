@@ -0,0 +1,36 @@
+package com.yy.ent;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * DraftFileStore 单元测试
+ */
+public class DraftFileStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void write_replacesAtomically() throws Exception {
+        File file = new File(mFolder.getRoot(), "draft");
+        DraftFileStore store = new DraftFileStore(file);
+        assertNull(store.read());
+
+        store.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        store.write(ByteBuffer.wrap(new byte[]{4, 5}));
+        ByteBuffer draft = store.read();
+        assertEquals(2, draft.remaining());
+        assertEquals(4, draft.get());
+        // 临时文件已经重命名
+        assertArrayEquals(new String[]{"draft"}, mFolder.getRoot().list());
+
+        store.delete();
+        assertNull(store.read());
+    }
+}
@@ -0,0 +1,157 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * EditHistory 单元测试,用StringBuilder模拟EditText,编辑事件顺序与RichEditText一致
+ */
+public class EditHistoryTest {
+    private final StringBuilder mText = new StringBuilder();
+    private final MentionEngine mEngine = new MentionEngine();
+    private final EditHistory mHistory = new EditHistory();
+    private int mSelection;
+
+    private final EditHistory.Target mTarget = new EditHistory.Target() {
+        @Override
+        public void replace(int start, int end, CharSequence text) {
+            EditHistoryTest.this.replace(start, end, text.toString());
+        }
+
+        @Override
+        public void addMention(XlpsFriend xlpsFriend, int start, int end) {
+            mEngine.getIndex().add(xlpsFriend, start, end);
+        }
+
+        @Override
+        public void setSelection(int offset) {
+            mSelection = offset;
+        }
+    };
+
+    private void replace(int start, int end, String text) {
+        mHistory.beforeChange(mText, start, end - start, mEngine.getIndex());
+        mEngine.beforeTextChanged(start, end - start, text.length());
+        mText.replace(start, end, text);
+        mHistory.afterChange(mText, start, end - start, text.length());
+        mEngine.onTextChanged(start, end - start, text.length());
+        XlpsFriend object = mEngine.commitPending();
+        if (object != null) {
+            mHistory.mentionAdded(object, object.startPos, object.endPos);
+        }
+    }
+
+    private void type(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            replace(mText.length(), mText.length(), text.substring(i, i + 1));
+        }
+    }
+
+    /**
+     * @return 加入索引的@好友
+     */
+    private XlpsFriend insertFriend(long userId, String name) {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mUserId = userId;
+        xlpsFriend.mUserName = name + " ";
+        String objectText = mEngine.prepareAtFriend(xlpsFriend, mText.length());
+        mEngine.setPending(xlpsFriend);
+        int start = mText.length();
+        replace(start, start, objectText);
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        return index.get(index.lowerBound(start));
+    }
+
+    @Test
+    public void typing_mergesIntoWords() throws Exception {
+        type("hello world");
+        assertEquals(2, mHistory.getUndoCount());
+        assertTrue(mHistory.undo(mTarget));
+        assertEquals("hello ", mText.toString());
+        assertEquals(6, mSelection);
+        assertTrue(mHistory.redo(mTarget));
+        assertEquals("hello world", mText.toString());
+
+        // 连续退格合并为一条
+        replace(10, 11, "");
+        replace(9, 10, "");
+        assertTrue(mHistory.undo(mTarget));
+        assertEquals("hello world", mText.toString());
+        assertEquals(2, mHistory.getUndoCount());
+    }
+
+    @Test
+    public void undo_restoresDeletedMention() throws Exception {
+        type("hi ");
+        XlpsFriend tom = insertFriend(1, "tom");
+        type("x");
+        assertEquals("hi @tom x", mText.toString());
+
+        // 删除键:先标记,再从索引移除,最后系统删除选中的文本
+        int slot = mEngine.getIndex().indexOf(tom);
+        int start = mEngine.getIndex().start(slot);
+        int end = mEngine.getIndex().end(slot);
+        tom.mFlag = XlpsFriend.FLAG_CLEAR;
+        mHistory.mentionRemoved(tom, start, end);
+        mEngine.removeAt(slot);
+        replace(start, end, "");
+        assertEquals("hi x", mText.toString());
+        assertTrue(mEngine.getIndex().isEmpty());
+
+        assertTrue(mHistory.undo(mTarget));
+        assertEquals("hi @tom x", mText.toString());
+        assertSame(tom, mEngine.getIndex().get(0));
+        assertEquals(XlpsFriend.FLAG_NORMAL, tom.mFlag);
+        assertEquals("hi @1 x", mEngine.getAtFriendText(mText));
+
+        // 撤销插入@好友,再重做
+        assertTrue(mHistory.undo(mTarget));
+        assertTrue(mHistory.undo(mTarget));
+        assertEquals("hi ", mText.toString());
+        assertTrue(mEngine.getIndex().isEmpty());
+        assertTrue(mHistory.redo(mTarget));
+        assertEquals("hi @tom ", mText.toString());
+        assertSame(tom, mEngine.getIndex().get(0));
+        assertEquals(3, mEngine.getIndex().start(0));
+    }
+
+    @Test
+    public void silentRename_foldsIntoInsertingEdit() throws Exception {
+        type("hi ");
+        insertFriend(7, "7");
+        type("x");
+        int undoCount = mHistory.getUndoCount();
+
+        // 占位名字换成真实名字,不增加撤销步骤
+        mHistory.setSilent(true);
+        String objectText = mEngine.prepareRename(0, "tommy", Integer.MAX_VALUE);
+        replace(3, 6, objectText);
+        mHistory.setSilent(false);
+        assertEquals("hi @tommy x", mText.toString());
+        assertEquals(undoCount, mHistory.getUndoCount());
+
+        assertTrue(mHistory.undo(mTarget));
+        assertEquals("hi @tommy ", mText.toString());
+        assertTrue(mHistory.undo(mTarget));
+        assertEquals("hi ", mText.toString());
+        assertTrue(mHistory.redo(mTarget));
+        assertEquals("hi @tommy ", mText.toString());
+        assertEquals(3, mEngine.getIndex().start(0));
+        assertEquals(10, mEngine.getIndex().end(0));
+    }
+
+    @Test
+    public void memoryBudget_dropsOldestEdits() throws Exception {
+        EditHistory history = new EditHistory(1024);
+        StringBuilder text = new StringBuilder();
+        MentionIndex<XlpsFriend> index = new MentionIndex<XlpsFriend>();
+        for (int i = 0; i < 10000; i++) {
+            history.beforeChange(text, text.length(), 0, index);
+            text.append("w ");
+            history.afterChange(text, text.length() - 2, 0, 2);
+        }
+        assertTrue(history.getMemoryUsage() <= 1024);
+        assertTrue(history.getUndoCount() > 0);
+    }
+}
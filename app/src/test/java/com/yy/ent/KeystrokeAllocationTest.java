@@ -0,0 +1,127 @@
+package com.yy.ent;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 输入热路径的内存分配测试
+ * <p>
+ * 按RichEditText的TextWatcher顺序把每次按键交给不依赖Android的各个部分:{@link LengthCounter}、{@link EditHistory}、
+ * {@link MentionEngine}(beforeTextChanged、onTextChanged、提交待插入的@好友、光标定位)以及
+ * 自动补全的{@link TriggerDetector}。在不涉及@好友、没有正在输入的触发词的情况下每次按键不应分配任何对象,
+ * 任何一次按键都分配对象的话总量至少是按键次数*16字节
+ * <p>
+ * 草稿自动保存每次按键只记录时间,不移除和重新post;自动补全只在查询内容变化时才生成查询字符串。
+ * 这两部分依赖Handler和输入框,不在这里测量
+ */
+public class KeystrokeAllocationTest {
+    private static final int MENTION_COUNT = 100;
+    private static final int KEYSTROKES = 10000;
+    private static final int HISTORY_BUDGET = 4096;// 较小的预算,让记录很快开始丢弃和复用
+
+    private final StringBuilder mText = new StringBuilder();
+    private final MentionEngine mEngine = new MentionEngine();
+    private final LengthCounter mLengthCounter = new LengthCounter(LengthPolicy.GRAPHEMES);
+    private final EditHistory mHistory = new EditHistory(HISTORY_BUDGET);
+    private final TriggerDetector mTriggerDetector = new TriggerDetector(mEngine.getRules());
+
+    /**
+     * 每个@好友占10个字符:"ab@u000 cc",@好友在[2, 8)
+     */
+    private void build() {
+        for (int i = 0; i < MENTION_COUNT; i++) {
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mUserId = i;
+            xlpsFriend.mUserName = String.format("@u%03d ", i);
+            mText.append("ab");
+            int start = mText.length();
+            mText.append(xlpsFriend.mUserName);
+            mEngine.getIndex().add(xlpsFriend, start, mText.length());
+            mText.append("cc");
+        }
+        mLengthCounter.reset(mText);
+    }
+
+    /**
+     * 把[start, start + before)替换为c(before为0时插入,否则删除),以及随后的光标变化
+     */
+    private int edit(int start, int before, char c) {
+        int count = before == 0 ? 1 : 0;
+        mLengthCounter.beforeTextChanged(mText, start, before);
+        mHistory.beforeChange(mText, start, before, mEngine.getIndex());
+        mEngine.beforeTextChanged(start, before, count);
+        if (before == 0) {
+            mText.insert(start, c);
+        } else {
+            mText.deleteCharAt(start);
+        }
+        mLengthCounter.onTextChanged(mText, start, before, count);
+        mHistory.afterChange(mText, start, before, count);
+        mEngine.onTextChanged(start, before, count);
+        int sink = mEngine.commitPending() != null ? 1 : 0;
+        int cursor = start + count;
+        sink += mTriggerDetector.detect(mText, cursor, mEngine.getIndex()) ? 1 : 0;
+        return sink + mEngine.snapCursor(cursor);
+    }
+
+    /**
+     * 在offset处输入一个字符
+     */
+    private int typeChar(int offset) {
+        return edit(offset, 0, 'x');
+    }
+
+    /**
+     * 删除offset前面的一个字符
+     */
+    private int deleteChar(int offset) {
+        return edit(offset - 1, 1, (char) 0);
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean bean) {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void typing_allocatesNothing() throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+
+        build();
+        int length = mText.length();
+        int sink = 0;
+        // 预热,同时让结构先稳定下来,撤销记录超出预算开始复用
+        for (int i = 0; i < KEYSTROKES; i++) {
+            sink += typeChar(1);
+            sink += deleteChar(2);
+        }
+
+        long overhead = allocatedBytes(bean);
+        overhead = allocatedBytes(bean) - overhead;
+        long before = allocatedBytes(bean);
+        for (int i = 0; i < KEYSTROKES; i++) {
+            // 开头、中间、结尾交替输入和删除
+            int offset = i % 3 == 0 ? 1 : i % 3 == 1 ? MENTION_COUNT * 5 : length;
+            sink += typeChar(offset);
+            sink += deleteChar(offset + 1);
+        }
+        long allocated = allocatedBytes(bean) - before - overhead;
+
+        // 光标不在@好友中间,也没有触发词,每次编辑的结果都是-1;预热和测量各2 * KEYSTROKES次编辑
+        assertEquals(-4 * KEYSTROKES, sink);
+        assertEquals(MENTION_COUNT, mEngine.getIndex().size());
+        assertEquals(length, mText.length());
+        assertEquals(length, mLengthCounter.getLength());
+        assertTrue(mHistory.canUndo());
+        assertTrue(mHistory.getMemoryUsage() <= HISTORY_BUDGET);
+        // 允许JIT编译等带来的零星分配,只要平均每次按键不到1字节即说明热路径本身不分配对象
+        assertTrue("allocated " + allocated + " bytes", allocated < KEYSTROKES);
+    }
+}
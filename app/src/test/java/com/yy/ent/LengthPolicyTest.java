@@ -0,0 +1,62 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LengthPolicy、LengthCounter 单元测试
+ */
+public class LengthPolicyTest {
+    private static final String FAMILY = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67";// 👨‍👩‍👧
+    private static final String THUMBS_UP_DARK = "\uD83D\uDC4D\uD83C\uDFFF";// 👍🏿
+    private static final String FLAG_CN = "\uD83C\uDDE8\uD83C\uDDF3";// 🇨🇳
+    private static final String E_ACUTE = "e\u0301";// é
+
+    @Test
+    public void measure_byUnit() throws Exception {
+        String text = "a\u4E2D" + FAMILY + THUMBS_UP_DARK + FLAG_CN + E_ACUTE;
+        assertEquals(text.length(), LengthPolicy.CODE_UNITS.measure(text));
+        assertEquals(2 + 5 + 2 + 2 + 2, LengthPolicy.CODE_POINTS.measure(text));
+        assertEquals(6, LengthPolicy.GRAPHEMES.measure(text));
+        assertEquals(1 + 2 + 2 + 2 + 2 + 1, LengthPolicy.WEIGHTED.measure(text));
+        assertEquals(2, LengthPolicy.GRAPHEMES.measure(FLAG_CN + FLAG_CN));
+        assertEquals(2, LengthPolicy.GRAPHEMES.measure("\r\n\n"));
+    }
+
+    @Test
+    public void fit_neverSplitsGraphemes() throws Exception {
+        String text = "ab" + FAMILY + "c";
+        // 按UTF-16字符计数时,放不下整个组合表情就截在它前面
+        assertEquals(2, LengthPolicy.CODE_UNITS.fit(text, 0, text.length(), 5));
+        assertEquals(2 + FAMILY.length(), LengthPolicy.CODE_UNITS.fit(text, 0, text.length(), 10));
+        assertEquals(2 + FAMILY.length(), LengthPolicy.GRAPHEMES.fit(text, 0, text.length(), 3));
+        assertEquals(2, LengthPolicy.WEIGHTED.fit(text, 0, text.length(), 3));
+        assertEquals(text.length(), LengthPolicy.WEIGHTED.fit(text, 0, text.length(), 100));
+    }
+
+    @Test
+    public void counter_matchesFullRecountUnderRandomEdits() throws Exception {
+        String[] pieces = {"a", " ", "\u4E2D", "\u200D", "\uD83D\uDC68", "\uD83C\uDFFF", "\uD83C\uDDE8",
+                "\u0301", "\r", "\n", "\uFE0F", FAMILY};
+        LengthPolicy[] policies = {LengthPolicy.CODE_UNITS, LengthPolicy.CODE_POINTS,
+                LengthPolicy.GRAPHEMES, LengthPolicy.WEIGHTED};
+        for (LengthPolicy policy : policies) {
+            Random random = new Random(7);
+            StringBuilder text = new StringBuilder();
+            LengthCounter counter = new LengthCounter(policy);
+            counter.reset(text);
+            for (int step = 0; step < 3000; step++) {
+                int start = random.nextInt(text.length() + 1);
+                int before = random.nextInt(3) == 0 ? Math.min(text.length() - start, random.nextInt(4)) : 0;
+                String inserted = random.nextInt(4) == 0 ? "" : pieces[random.nextInt(pieces.length)];
+                counter.beforeTextChanged(text, start, before);
+                text.replace(start, start + before, inserted);
+                counter.onTextChanged(text, start, before, inserted.length());
+                assertEquals("unit " + policy.getUnit() + " step " + step, policy.measure(text), counter.getLength());
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LongHashSet 单元测试,与HashMap计数对比
+ */
+public class LongHashSetTest {
+
+    @Test
+    public void randomOps_matchHashMap() throws Exception {
+        Random random = new Random(16);
+        LongHashSet set = new LongHashSet();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int step = 0; step < 100000; step++) {
+            // 值域小,保证有大量冲突和重复
+            long key = random.nextInt(300) * 1024L - 1000;
+            Integer count = expected.get(key);
+            if (random.nextInt(3) == 0) {
+                assertEquals(count != null && count > 1, set.remove(key));
+                if (count != null) {
+                    if (count == 1) {
+                        expected.remove(key);
+                    } else {
+                        expected.put(key, count - 1);
+                    }
+                }
+            } else {
+                set.add(key);
+                expected.put(key, count == null ? 1 : count + 1);
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (long key = -1000; key < 300 * 1024L; key += 512) {
+            assertEquals(expected.containsKey(key), set.contains(key));
+        }
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(-1000));
+    }
+}
@@ -0,0 +1,67 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MentionClip 单元测试
+ */
+public class MentionClipTest {
+
+    @Test
+    public void snapshot_keepsWholeMentionsRelativeToSelection() throws Exception {
+        MentionEngine engine = new MentionEngine();
+        String text = "hi @tom and @ann x";
+        XlpsFriend tom = new XlpsFriend();
+        tom.mUserId = 1;
+        tom.mUserName = "@tom ";
+        tom.mFlag = XlpsFriend.FLAG_MARK;
+        XlpsFriend ann = new XlpsFriend();
+        ann.mUserId = 2;
+        ann.mUserName = "@ann ";
+        engine.getIndex().add(tom, 3, 8);
+        engine.getIndex().add(ann, 12, 17);
+
+        // 只完整选中了@tom
+        MentionClip clip = MentionClip.snapshot(text, engine.getIndex(), 1, 14);
+        assertEquals("i @tom and @a", clip.getText());
+        assertEquals(1, clip.getMentionCount());
+        assertEquals(XlpsFriend.FLAG_MARK, tom.mFlag);
+
+        MentionIndex<XlpsFriend> first = clip.copyMentions();
+        MentionIndex<XlpsFriend> second = clip.copyMentions();
+        assertEquals(2, first.start(0));
+        assertEquals(7, first.end(0));
+        assertEquals(1, first.get(0).mUserId);
+        assertEquals(XlpsFriend.FLAG_NORMAL, first.get(0).mFlag);
+        assertNotSame(tom, first.get(0));
+        assertNotSame(first.get(0), second.get(0));
+    }
+
+    @Test
+    public void encode_roundTripsThroughClipboardText() throws Exception {
+        MentionIndex<XlpsFriend> index = new MentionIndex<XlpsFriend>();
+        XlpsFriend tom = new XlpsFriend();
+        tom.mRule = "#";
+        tom.mUserId = 7;
+        tom.mUserName = "#tom ";
+        index.add(tom, 3, 8);
+        String text = "hi #tom x";
+        MentionClip clip = MentionClip.snapshot(text, index, 0, text.length());
+
+        MentionClip decoded = MentionClip.decode(clip.encode(), text);
+        assertNotNull(decoded);
+        MentionIndex<XlpsFriend> mentions = decoded.copyMentions();
+        assertEquals(1, mentions.size());
+        assertEquals(3, mentions.start(0));
+        assertEquals(8, mentions.end(0));
+        assertEquals("#", mentions.get(0).mRule);
+        assertEquals(7, mentions.get(0).mUserId);
+
+        // 条目文本被改过或者编码损坏时不还原
+        assertNull(MentionClip.decode(clip.encode(), "hi #tim x"));
+        assertNull(MentionClip.decode("{", text));
+        assertNull(MentionClip.decode(null, text));
+    }
+}
@@ -0,0 +1,95 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * MentionDeleteController 单元测试,用StringBuilder模拟EditText
+ */
+public class MentionDeleteControllerTest {
+    private final StringBuilder mText = new StringBuilder();
+    private final MentionEngine mEngine = new MentionEngine();
+    private final List<String> mEvents = new ArrayList<String>();
+    private final MentionDeleteController mController = new MentionDeleteController(mEngine,
+            new MentionDeleteController.Host() {
+                @Override
+                public void showMark(XlpsFriend xlpsFriend, int start, int end) {
+                    mEvents.add("show " + start + "-" + end);
+                }
+
+                @Override
+                public void hideMark(XlpsFriend xlpsFriend) {
+                    mEvents.add("hide");
+                }
+
+                @Override
+                public void deleteMention(int slot, int start, int end) {
+                    assertEquals(MentionDeleteController.STATE_CLEARING, mController.getState());
+                    mEngine.removeAt(slot);
+                    replace(start, end, "");
+                }
+            });
+
+    private void replace(int start, int end, String text) {
+        mEngine.beforeTextChanged(start, end - start, text.length());
+        mText.replace(start, end, text);
+        mController.onTextChanged();
+        mEngine.onTextChanged(start, end - start, text.length());
+        mEngine.commitPending();
+    }
+
+    private void insertFriend(long userId, String name) {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mUserId = userId;
+        xlpsFriend.mUserName = name + " ";
+        String objectText = mEngine.prepareAtFriend(xlpsFriend, mText.length());
+        mEngine.setPending(xlpsFriend);
+        replace(mText.length(), mText.length(), objectText);
+    }
+
+    @Test
+    public void deleteTwice_removesWholeMention() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(1, "tom");
+        int cursor = mText.length();
+
+        assertTrue(mController.onDelete(cursor, cursor));
+        assertEquals(MentionDeleteController.STATE_MARKED, mController.getState());
+        assertEquals(XlpsFriend.FLAG_MARK, mController.getTarget().mFlag);
+        assertEquals("hi @tom ", mText.toString());
+
+        assertTrue(mController.onDelete(cursor, cursor));
+        assertEquals(MentionDeleteController.STATE_IDLE, mController.getState());
+        assertEquals("hi ", mText.toString());
+        assertTrue(mEngine.getIndex().isEmpty());
+        assertEquals("[show 3-8]", mEvents.toString());
+
+        // 普通文字交给系统删除
+        assertFalse(mController.onDelete(3, 3));
+    }
+
+    @Test
+    public void markCanceledByEditsAndCursorMoves() throws Exception {
+        insertFriend(1, "tom");
+        XlpsFriend tom = mEngine.getIndex().get(0);
+        assertTrue(mController.onDelete(5, 5));
+        mController.onSelectionChanged(5, 5);
+        assertEquals(MentionDeleteController.STATE_MARKED, mController.getState());
+
+        mController.onSelectionChanged(0, 0);
+        assertEquals(MentionDeleteController.STATE_IDLE, mController.getState());
+        assertEquals(XlpsFriend.FLAG_NORMAL, tom.mFlag);
+
+        assertTrue(mController.onDelete(5, 5));
+        replace(5, 5, "x");
+        assertEquals(MentionDeleteController.STATE_IDLE, mController.getState());
+        assertEquals(XlpsFriend.FLAG_NORMAL, tom.mFlag);
+        assertNull(mEngine.unmark());
+        assertEquals("[show 0-5, hide, show 0-5, hide]", mEvents.toString());
+        assertEquals("@tom x", mText.toString());
+    }
+}
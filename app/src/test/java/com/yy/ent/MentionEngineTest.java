@@ -0,0 +1,321 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.io.Writer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * MentionEngine 单元测试,用StringBuilder模拟EditText的文本和编辑事件
+ */
+public class MentionEngineTest {
+    private final StringBuilder mText = new StringBuilder();
+    private final MentionEngine mEngine = new MentionEngine();
+
+    private void replace(int start, int end, String text) {
+        mEngine.beforeTextChanged(start, end - start, text.length());
+        mText.replace(start, end, text);
+        mEngine.onTextChanged(start, end - start, text.length());
+        mEngine.commitPending();
+    }
+
+    private void insertFriend(long userId, String name, int cursor) {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mUserId = userId;
+        xlpsFriend.mUserName = name + " ";
+        String objectText = mEngine.prepareAtFriend(xlpsFriend, cursor);
+        mEngine.setPending(xlpsFriend);
+        replace(cursor, cursor, objectText);
+    }
+
+    /**
+     * 每个@好友的位置都要正好对应它的文本
+     */
+    private void assertConsistent() {
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        int prevEnd = 0;
+        for (int i = 0; i < index.size(); i++) {
+            assertTrue(index.start(i) >= prevEnd);
+            assertEquals(index.get(i).mUserName, mText.substring(index.start(i), index.end(i)));
+            prevEnd = index.end(i);
+        }
+    }
+
+    @Test
+    public void duplicatesAndLimit_areCountedPerRule() throws Exception {
+        mEngine.setRules(new MentionRules(new MentionRule("@", 0), new MentionRule("#", 0)));
+        insertFriend(5, "tom", 0);
+        XlpsFriend topic = new XlpsFriend();
+        topic.mRule = "#";
+        topic.mUserId = 5;
+        topic.mUserName = "news ";
+        assertFalse(mEngine.isExistFriend(topic));
+        assertFalse(mEngine.checkAboveMaxCount("#", 1));
+        assertTrue(mEngine.checkAboveMaxCount("@", 1));
+
+        mEngine.setPending(topic);
+        replace(mText.length(), mText.length(), mEngine.prepareAtFriend(topic, mText.length()));
+        assertEquals("@tom #news ", mText.toString());
+        assertTrue(mEngine.isExistFriend(topic));
+        assertTrue(mEngine.containsUser(5));
+        assertEquals(1, mEngine.countOf("#"));
+
+        // 占位名字只对@好友有效
+        XlpsFriend placeholder = new XlpsFriend();
+        placeholder.mRule = "#";
+        placeholder.mUserId = 5;
+        placeholder.mUserName = "#5 ";
+        assertFalse(MentionEngine.isPlaceholder(placeholder));
+
+        replace(0, 5, "");
+        assertFalse(mEngine.containsUser(5));
+        assertTrue(mEngine.isExistFriend(topic));
+    }
+
+    @Test
+    public void acceptPasted_ignoresMentionsTheSelectionReplaces() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(1, "tom", 3);
+        insertFriend(2, "amy", mText.length());
+        assertEquals("hi @tom @amy ", mText.toString());
+        // 复制的整段内容,位置相对粘贴内容
+        MentionIndex<XlpsFriend> clip = new MentionIndex<XlpsFriend>();
+        clip.add(mEngine.getIndex().get(0).copy(), 3, 8);
+        clip.add(mEngine.getIndex().get(1).copy(), 8, 13);
+
+        // 没有选中内容时两个都已存在
+        assertEquals(0, mEngine.acceptPasted(clip, 13, 13, 10).size());
+        // 选中"@tom "粘贴,@tom替换后不存在了
+        MentionIndex<XlpsFriend> accepted = mEngine.acceptPasted(clip, 3, 8, 10);
+        assertEquals(1, accepted.size());
+        assertEquals(1, accepted.get(0).mUserId);
+        assertEquals(3, accepted.start(0));
+        // 全选粘贴,被替换的@好友也不占个数
+        assertEquals(2, mEngine.acceptPasted(clip, 0, 13, 2).size());
+        // 只覆盖了一部分的@tom替换后还在
+        accepted = mEngine.acceptPasted(clip, 4, 13, 10);
+        assertEquals(1, accepted.size());
+        assertEquals(2, accepted.get(0).mUserId);
+    }
+
+    @Test
+    public void editStream_shiftsMentions() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(1, "tom", 3);
+        replace(mText.length(), mText.length(), "and ");
+        insertFriend(2, "amy", mText.length());
+        assertEquals("hi @tom and @amy ", mText.toString());
+        replace(0, 0, "oh ");
+        replace(0, 3, "");
+        replace(2, 3, "");
+        assertEquals("hi@tom and @amy ", mText.toString());
+        assertConsistent();
+        assertEquals("hi@1 and @2 ", mEngine.getAtFriendText(mText));
+        assertEquals("hi@1 and @2 ", mEngine.writeAtFriendText(mText, new StringBuilder()).toString());
+    }
+
+    @Test
+    public void prepareRename_replacesPlaceholderInPlace() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(7, MentionEngine.placeholderName(7), 3);
+        insertFriend(8, "amy", mText.length());
+        replace(mText.length(), mText.length(), "!");
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        assertTrue(MentionEngine.isPlaceholder(index.get(0)));
+        assertFalse(MentionEngine.isPlaceholder(index.get(1)));
+
+        assertNull(mEngine.prepareRename(0, "tommy", 2));
+        String objectText = mEngine.prepareRename(0, "tommy", Integer.MAX_VALUE);
+        replace(index.start(0), index.end(0), objectText);
+        assertEquals("hi @tommy @amy !", mText.toString());
+        assertEquals(2, index.size());
+        assertFalse(MentionEngine.isPlaceholder(index.get(0)));
+        assertConsistent();
+        assertEquals("hi @7 @8 !", mEngine.getAtFriendText(mText));
+    }
+
+    @Test
+    public void userIds_stayInSyncWithIndex() throws Exception {
+        insertFriend(1, "tom", 0);
+        insertFriend(2, "amy", mText.length());
+        insertFriend(1, "tom", mText.length());
+        XlpsFriend probe = new XlpsFriend();
+        probe.mUserId = 2;
+        assertTrue(mEngine.isExistFriend(probe));
+        // 删除amy的文本
+        replace(5, 10, "");
+        assertFalse(mEngine.isExistFriend(probe));
+        // 重复的tom删掉一个还在
+        mEngine.removeAt(0);
+        assertTrue(mEngine.containsUser(1));
+        mEngine.setIndex(new MentionIndex<XlpsFriend>());
+        assertFalse(mEngine.containsUser(1));
+        mEngine.clear();
+        assertFalse(mEngine.isExistFriend(null));
+    }
+
+    @Test
+    public void getXlpsFriends_returnsCopies() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(1, "tom", 3);
+        XlpsFriend returned = mEngine.getXlpsFriends().get(0);
+        assertEquals(3, returned.startPos);
+        assertEquals(8, returned.endPos);
+
+        returned.mUserId = 9;
+        assertTrue(mEngine.containsUser(1));
+        assertFalse(mEngine.containsUser(9));
+        assertEquals(1, mEngine.getIndex().get(0).mUserId);
+    }
+
+    @Test
+    public void writeAtFriendText_ids() throws Exception {
+        insertFriend(Long.MIN_VALUE, "min", 0);
+        insertFriend(0, "zero", mText.length());
+        insertFriend(Long.MAX_VALUE, "max", mText.length());
+        assertEquals("@" + Long.MIN_VALUE + " @0 @" + Long.MAX_VALUE + " ", mEngine.getAtFriendText(mText));
+        // 原列表顺序不受影响
+        assertEquals(0, mEngine.getIndex().get(1).mUserId);
+    }
+
+    /**
+     * 只接受char[]的Writer,经过String的写入(包括append(CharSequence)生成的子串)直接失败
+     */
+    private static class CharArrayOnlyWriter extends Writer {
+        final StringBuilder mWritten = new StringBuilder();
+
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            mWritten.append(buffer, offset, count);
+        }
+
+        @Override
+        public void write(String text, int offset, int count) {
+            throw new AssertionError("substring written: " + text);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void writeAtFriendText_writerGetsCharArrays() throws Exception {
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("hello ");
+        }
+        replace(0, 0, longText.toString());
+        insertFriend(42, "tom", mText.length());
+        replace(mText.length(), mText.length(), longText.toString());
+        String expected = mEngine.getAtFriendText(mText);
+        assertEquals(longText + "@42 " + longText, expected);
+
+        CharArrayOnlyWriter writer = new CharArrayOnlyWriter();
+        mEngine.writeAtFriendText(mText, writer);
+        assertEquals(expected, writer.mWritten.toString());
+        // String原文本走getChars
+        writer = new CharArrayOnlyWriter();
+        mEngine.writeAtFriendText(mText.toString(), writer);
+        assertEquals(expected, writer.mWritten.toString());
+    }
+
+    @Test
+    public void snapSelection() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(1, "tom", 3);
+        assertEquals(8, mEngine.snapCursor(5));
+        assertEquals(-1, mEngine.snapCursor(3));
+        assertEquals(-1, mEngine.snapCursor(8));
+        assertEquals(3, mEngine.snapSelectionStart(4));
+        assertEquals(8, mEngine.snapSelectionEnd(6));
+    }
+
+    @Test
+    public void deleteKey_marksThenRemoves() throws Exception {
+        replace(0, 0, "hi ");
+        insertFriend(1, "tom", 3);
+        assertEquals(-1, mEngine.markEndingAt(3));
+        int slot = mEngine.markEndingAt(8);
+        assertEquals(0, slot);
+        assertEquals(XlpsFriend.FLAG_MARK, mEngine.getIndex().get(0).mFlag);
+        assertNotNull(mEngine.unmark());
+        assertEquals(XlpsFriend.FLAG_NORMAL, mEngine.getIndex().get(0).mFlag);
+        assertNull(mEngine.unmark());
+
+        slot = mEngine.markEndingAt(8);
+        MentionIndex<XlpsFriend> index = mEngine.getIndex();
+        int start = index.start(slot);
+        int end = index.end(slot);
+        index.get(slot).mFlag = XlpsFriend.FLAG_CLEAR;
+        mEngine.removeAt(slot);
+        assertNull(mEngine.unmark());
+        replace(start, end, "");
+        assertEquals("hi ", mText.toString());
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void flaggedMention_trackedWithoutScanning() throws Exception {
+        insertFriend(1, "tom", 0);
+        insertFriend(2, "amy", mText.length());
+        // 换一个@好友标记,之前的标记取消
+        assertEquals(0, mEngine.markEndingAt(5));
+        assertEquals(1, mEngine.markEndingAt(10));
+        assertEquals(XlpsFriend.FLAG_NORMAL, mEngine.getIndex().get(0).mFlag);
+        assertEquals(XlpsFriend.FLAG_MARK, mEngine.getIndex().get(1).mFlag);
+
+        // 加入索引时已经带有标记的@好友也能取消
+        MentionEngine engine = new MentionEngine(mEngine.getIndex());
+        assertSame(mEngine.getIndex().get(1), engine.unmark());
+        assertEquals(XlpsFriend.FLAG_NORMAL, mEngine.getIndex().get(1).mFlag);
+        engine.markEndingAt(10);
+        engine.clear();
+        assertNull(engine.unmark());
+    }
+
+    @Test
+    public void randomEdits_keepMentionsConsistent() throws Exception {
+        Random random = new Random(42);
+        long userId = 0;
+        for (int step = 0; step < 5000; step++) {
+            int length = mText.length();
+            int op = random.nextInt(10);
+            if (op < 5) {
+                // 输入,光标不会停在@好友中间
+                int cursor = random.nextInt(length + 1);
+                int snapped = mEngine.snapCursor(cursor);
+                replace(snapped >= 0 ? snapped : cursor, snapped >= 0 ? snapped : cursor,
+                        op == 0 ? "ab" : "x");
+            } else if (op < 8 && length > 0) {
+                // 删除一段文本,跳过会删掉@好友一部分的情况
+                int start = random.nextInt(length);
+                int end = Math.min(length, start + 1 + random.nextInt(op == 7 ? 12 : 1));
+                if (mEngine.snapCursor(start) < 0 && mEngine.snapCursor(end) < 0) {
+                    replace(start, end, "");
+                }
+            } else if (op == 8 && mEngine.getIndex().size() < 50) {
+                int cursor = random.nextInt(length + 1);
+                if (mEngine.snapCursor(cursor) < 0) {
+                    insertFriend(++userId, "u" + userId, cursor);
+                }
+            } else if (length > 0) {
+                // 删除键整体删除光标前的@好友
+                int cursor = random.nextInt(length + 1);
+                int slot = mEngine.markEndingAt(cursor);
+                if (slot >= 0) {
+                    int start = mEngine.getIndex().start(slot);
+                    mEngine.removeAt(slot);
+                    replace(start, cursor, "");
+                }
+            }
+            assertConsistent();
+        }
+    }
+}
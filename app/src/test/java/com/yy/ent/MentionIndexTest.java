@@ -0,0 +1,111 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MentionIndex 单元测试
+ */
+public class MentionIndexTest {
+
+    private MentionIndex<String> build() {
+        MentionIndex<String> index = new MentionIndex<String>();
+        // 乱序插入,索引按起始位置排序
+        index.add("c", 20, 25);
+        index.add("a", 0, 5);
+        index.add("b", 10, 15);
+        return index;
+    }
+
+    @Test
+    public void add_keepsOrder() throws Exception {
+        MentionIndex<String> index = build();
+        assertEquals(3, index.size());
+        assertEquals("a", index.get(0));
+        assertEquals("b", index.get(1));
+        assertEquals("c", index.get(2));
+    }
+
+    @Test
+    public void findContaining() throws Exception {
+        MentionIndex<String> index = build();
+        assertEquals(-1, index.findContaining(0));
+        assertEquals(0, index.findContaining(3));
+        assertEquals(-1, index.findContaining(5));
+        assertEquals(-1, index.findContaining(7));
+        assertEquals(1, index.findContaining(14));
+        assertEquals(2, index.findContaining(21));
+        assertEquals(-1, index.findContaining(30));
+    }
+
+    @Test
+    public void findEndingAt() throws Exception {
+        MentionIndex<String> index = build();
+        assertEquals(0, index.findEndingAt(5));
+        assertEquals(1, index.findEndingAt(15));
+        assertEquals(2, index.findEndingAt(25));
+        assertEquals(-1, index.findEndingAt(14));
+    }
+
+    @Test
+    public void shift_movesSuffix() throws Exception {
+        MentionIndex<String> index = build();
+        index.shift(10, 3);
+        assertEquals(0, index.start(0));
+        assertEquals(13, index.start(1));
+        assertEquals(18, index.end(1));
+        assertEquals(23, index.start(2));
+    }
+
+    @Test
+    public void removeCovered() throws Exception {
+        MentionIndex<String> index = build();
+        int from = index.lowerBound(8);
+        int to = index.coveredEnd(from, 26);
+        index.removeRange(from, to);
+        assertEquals(1, index.size());
+        assertEquals("a", index.get(0));
+    }
+
+    @Test
+    public void replace_shiftsLazily() throws Exception {
+        MentionIndex<String> index = build();
+        // 在最前面连续输入,只记录平移量,读取时才叠加
+        for (int i = 0; i < 4; i++) {
+            index.replace(0, 0, 1);
+        }
+        assertEquals(4, index.start(0));
+        assertEquals(14, index.start(1));
+        assertEquals(29, index.end(2));
+        assertEquals(1, index.findContaining(15));
+        // 删除"a"以及前面的字符
+        assertEquals(1, index.replace(0, 9, 0));
+        assertEquals(2, index.size());
+        assertEquals(5, index.start(0));
+        assertEquals(15, index.start(1));
+        // 结构变化之后位置保持正确
+        index.add("d", 0, 2);
+        assertEquals(5, index.start(1));
+        assertEquals(20, index.end(2));
+    }
+
+    @Test
+    public void addAll_insertsShiftedBlock() throws Exception {
+        MentionIndex<String> index = build();
+        // 在"a"和"b"之间粘贴了10个字符,其中有两个@好友,最后一个被截掉
+        index.replace(7, 0, 10);
+        MentionIndex<String> pasted = new MentionIndex<String>();
+        pasted.add("x", 0, 3);
+        pasted.add("y", 4, 8);
+        pasted.add("z", 8, 12);
+        assertEquals(2, index.addAll(pasted, 7, 17));
+        assertEquals(5, index.size());
+        assertEquals("x", index.get(1));
+        assertEquals(11, index.start(2));
+        assertEquals(15, index.end(2));
+        assertEquals("b", index.get(3));
+        assertEquals(20, index.start(3));
+        assertEquals(0, index.addAll(pasted, 100, 100));
+    }
+}
@@ -0,0 +1,98 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MentionStylePool 单元测试
+ */
+public class MentionStylePoolTest {
+
+    private static XlpsFriend friend(long userId) {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mRule = "@";
+        xlpsFriend.mUserId = userId;
+        xlpsFriend.mUserName = "@u" + userId + " ";
+        return xlpsFriend;
+    }
+
+    @Test
+    public void shared_returnsSamePoolForSameColors() throws Exception {
+        MentionStylePool pool = MentionStylePool.shared(0xFF0000FF, 0xFFFFDEAD);
+        assertSame(pool, MentionStylePool.shared(0xFF0000FF, 0xFFFFDEAD));
+        assertNotSame(pool, MentionStylePool.shared(0xFF00FF00, 0xFFFFDEAD));
+        assertSame(pool.getMarkSpan(), pool.getMarkSpan());
+    }
+
+    @Test
+    public void shared_rethemedPoolIsNotHandedOut() throws Exception {
+        MentionStylePool pool = MentionStylePool.shared(0xFF123456, 0xFFFFDEAD);
+        pool.setColor("@", 0xFFFF0000);
+        MentionStylePool fresh = MentionStylePool.shared(0xFF123456, 0xFFFFDEAD);
+        assertNotSame(pool, fresh);
+        assertEquals(0xFF123456, fresh.getSlot("@", 0xFF123456).get().getForegroundColor());
+        assertSame(fresh, MentionStylePool.shared(0xFF123456, 0xFFFFDEAD));
+
+        fresh.setMarkColor(0xFF00FF00);
+        assertNotSame(fresh, MentionStylePool.shared(0xFF123456, 0xFFFFDEAD));
+    }
+
+    @Test
+    public void getSlot_keepsEachRequestedColorUntilRethemed() throws Exception {
+        MentionStylePool pool = new MentionStylePool(0xFFFFDEAD);
+        MentionSpan blue = pool.newMentionSpan(friend(1), MentionRules.users(0xFF0000FF), 0xFF000000);
+        MentionSpan green = pool.newMentionSpan(friend(2), MentionRules.users(0xFF00FF00), 0xFF000000);
+        assertEquals(0xFF0000FF, blue.getForegroundColor());
+        assertEquals(0xFF00FF00, green.getForegroundColor());
+
+        pool.setColor("@", 0xFFFF0000);
+        assertEquals(0xFFFF0000, blue.getForegroundColor());
+        assertEquals(0xFFFF0000, green.getForegroundColor());
+        assertEquals(0xFFFF0000, pool.newMentionSpan(friend(3), MentionRules.users(0xFF0000FF), 0).getForegroundColor());
+    }
+
+    @Test
+    public void setColor_rethemesExistingSpans() throws Exception {
+        MentionStylePool pool = new MentionStylePool(0xFFFFDEAD);
+        MentionRules rules = MentionRules.users(0xFF0000FF);
+        MentionSpan first = pool.newMentionSpan(friend(1), rules, 0xFF000000);
+        MentionSpan second = pool.newMentionSpan(friend(2), rules, 0xFF000000);
+        assertEquals(0xFF0000FF, first.getForegroundColor());
+
+        pool.setColor("@", 0xFFFF0000);
+        assertEquals(0xFFFF0000, first.getForegroundColor());
+        assertEquals(0xFFFF0000, second.getForegroundColor());
+        assertSame(pool.getSlot("@", 0).get(), pool.getSlot("@", 0xFF000000).get());
+        assertTrue(pool.getSlot("@", 0).get().hasForeground());
+        assertFalse(pool.getSlot("@", 0).get().hasBackground());
+    }
+
+    @Test
+    public void setColor_notifiesEveryListener() throws Exception {
+        MentionStylePool pool = new MentionStylePool(0xFFFFDEAD);
+        final int[] changes = new int[1];
+        MentionStylePool.Listener first = new MentionStylePool.Listener() {
+            @Override
+            public void onStyleChanged(MentionStylePool pool) {
+                changes[0]++;
+            }
+        };
+        MentionStylePool.Listener second = new MentionStylePool.Listener() {
+            @Override
+            public void onStyleChanged(MentionStylePool pool) {
+                changes[0] += 10;
+            }
+        };
+        pool.addListener(first);
+        pool.addListener(second);
+        pool.getSlot("@", 0xFF0000FF);
+        pool.setColor("@", 0xFFFF0000);
+        assertEquals(11, changes[0]);
+        // 颜色没有变化不通知
+        pool.setColor("@", 0xFFFF0000);
+        pool.removeListener(second);
+        pool.setMarkColor(0xFF00FF00);
+        assertEquals(12, changes[0]);
+    }
+}
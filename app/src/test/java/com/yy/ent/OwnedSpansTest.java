@@ -0,0 +1,246 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * OwnedSpans 单元测试
+ */
+public class OwnedSpansTest {
+
+    /**
+     * 模拟Editable的span存储
+     */
+    private static class FakeHost implements OwnedSpans.Host {
+        final IdentityHashMap<Object, int[]> spans = new IdentityHashMap<Object, int[]>();
+
+        @Override
+        public void setSpan(Object span, int start, int end, int flags) {
+            spans.put(span, new int[]{start, end});
+        }
+
+        @Override
+        public void removeSpan(Object span) {
+            spans.remove(span);
+        }
+
+        @Override
+        public int getSpanStart(Object span) {
+            int[] range = spans.get(span);
+            return range != null ? range[0] : -1;
+        }
+
+        @Override
+        public int getSpanEnd(Object span) {
+            int[] range = spans.get(span);
+            return range != null ? range[1] : -1;
+        }
+
+        /**
+         * 模拟Editable替换文本[start, end)为count个字符,span按SPAN_EXCLUSIVE_EXCLUSIVE移动,长度变为0的被回收
+         */
+        void replace(int start, int end, int count) {
+            int delta = count - (end - start);
+            Iterator<int[]> iterator = spans.values().iterator();
+            while (iterator.hasNext()) {
+                int[] range = iterator.next();
+                range[0] = range[0] < start ? range[0] : range[0] >= end ? range[0] + delta : start + count;
+                range[1] = range[1] <= start ? range[1] : range[1] >= end ? range[1] + delta : start;
+                if (range[0] >= range[1]) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按RichEditText的顺序把编辑事件交给MentionEngine、OwnedSpans和MentionDeleteController
+     */
+    private static class Editor implements MentionDeleteController.Host {
+        private static final Object MARK_SPAN = new Object();// 与样式池一样,标记的背景span共用一个对象
+        final StringBuilder text = new StringBuilder();
+        final FakeHost host = new FakeHost();
+        final MentionEngine engine = new MentionEngine();
+        final OwnedSpans mentionSpans = new OwnedSpans(host);
+        final OwnedSpans markSpans = new OwnedSpans(host);
+        final MentionDeleteController deleteController = new MentionDeleteController(engine, this);
+        private boolean mSpansStale;
+        private int mRefreshStart = Integer.MAX_VALUE;
+        private int mRefreshEnd = -1;
+
+        void replace(int start, int end, String inserted) {
+            // beforeTextChanged
+            if (engine.beforeTextChanged(start, end - start, inserted.length()) > 0) {
+                mSpansStale = true;
+            }
+            text.replace(start, end, inserted);
+            host.replace(start, end, inserted.length());
+            // onTextChanged
+            deleteController.onTextChanged();
+            if (engine.onTextChanged(start, end - start, inserted.length()) > 0) {
+                mSpansStale = true;
+            }
+            markRefreshRange(start, start + inserted.length());
+            // afterTextChanged
+            refresh();
+        }
+
+        void insertMention(long userId, int cursor) {
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mUserId = userId;
+            xlpsFriend.mUserName = "u" + userId + " ";
+            if (engine.isExistFriend(xlpsFriend)) {
+                return;
+            }
+            String objectText = engine.prepareAtFriend(xlpsFriend, cursor);
+            engine.setPending(xlpsFriend);
+            replace(cursor, cursor, objectText);
+        }
+
+        void deleteKey(int cursor) {
+            if (!deleteController.onDelete(cursor, cursor) && cursor > 0) {
+                replace(cursor - 1, cursor, "");
+            }
+        }
+
+        private void markRefreshRange(int start, int end) {
+            mRefreshStart = Math.min(mRefreshStart, start);
+            mRefreshEnd = Math.max(mRefreshEnd, end);
+        }
+
+        private void refresh() {
+            if (text.length() == 0) {
+                mRefreshStart = Integer.MAX_VALUE;
+                mRefreshEnd = -1;
+                engine.clear();
+                mentionSpans.clear();
+                markSpans.clear();
+                mSpansStale = false;
+                return;
+            }
+            if (mSpansStale) {
+                mentionSpans.compact();
+                markSpans.compact();
+                mSpansStale = false;
+            }
+            XlpsFriend added = engine.commitPending();
+            if (added != null) {
+                markRefreshRange(added.startPos, added.endPos);
+            }
+            int refreshStart = mRefreshStart;
+            int refreshEnd = Math.min(mRefreshEnd, text.length());
+            mRefreshStart = Integer.MAX_VALUE;
+            mRefreshEnd = -1;
+            MentionIndex<XlpsFriend> index = engine.getIndex();
+            int from = index.lowerBound(refreshStart);
+            if (from > 0 && index.end(from - 1) > refreshStart) {
+                from--;
+            }
+            for (int i = from; i < index.size() && index.start(i) < refreshEnd; i++) {
+                XlpsFriend xlpsFriend = index.get(i);
+                Object span = mentionSpans.get(xlpsFriend);
+                if (span == null) {
+                    span = new Object();
+                } else if (host.getSpanStart(span) == index.start(i) && host.getSpanEnd(span) == index.end(i)) {
+                    continue;
+                }
+                mentionSpans.set(xlpsFriend, span, index.start(i), index.end(i), 0);
+            }
+        }
+
+        @Override
+        public void showMark(XlpsFriend xlpsFriend, int start, int end) {
+            markSpans.set(xlpsFriend, MARK_SPAN, start, end, 0);
+        }
+
+        @Override
+        public void hideMark(XlpsFriend xlpsFriend) {
+            markSpans.remove(xlpsFriend);
+        }
+
+        @Override
+        public void deleteMention(int slot, int start, int end) {
+            XlpsFriend xlpsFriend = engine.removeAt(slot);
+            mentionSpans.remove(xlpsFriend);
+            markSpans.remove(xlpsFriend);
+            replace(start, end, "");
+        }
+
+        /**
+         * 光标不会停在@好友中间
+         */
+        int cursor(Random random) {
+            int offset = random.nextInt(text.length() + 1);
+            int snapped = engine.snapCursor(offset);
+            return snapped >= 0 ? snapped : offset;
+        }
+    }
+
+    @Test
+    public void set_supersedesOldSpan() throws Exception {
+        FakeHost host = new FakeHost();
+        OwnedSpans ownedSpans = new OwnedSpans(host);
+        Object key = new Object();
+        ownedSpans.set(key, new Object(), 0, 5, 0);
+        Object span = new Object();
+        ownedSpans.set(key, span, 0, 5, 0);
+        assertEquals(1, ownedSpans.size());
+        assertEquals(1, host.spans.size());
+        assertSame(span, ownedSpans.get(key));
+        ownedSpans.remove(key);
+        assertEquals(0, host.spans.size());
+    }
+
+    @Test
+    public void editStream_spanCountStaysBounded() throws Exception {
+        Editor editor = new Editor();
+        Random random = new Random(7);
+        for (int edit = 0; edit < 10000; edit++) {
+            int cursor = editor.cursor(random);
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    editor.replace(cursor, cursor, "ab ".substring(random.nextInt(3)));
+                    break;
+                case 2:
+                    editor.insertMention(random.nextInt(30), cursor);
+                    break;
+                case 3:
+                    editor.deleteKey(cursor);
+                    break;
+                case 4: {
+                    // 删除或替换选中的内容,选区两端会扩展到@好友边界
+                    int other = random.nextInt(editor.text.length() + 1);
+                    int low = Math.min(cursor, other);
+                    int high = Math.max(cursor, other);
+                    int snappedLow = editor.engine.snapSelectionStart(low);
+                    int snappedHigh = editor.engine.snapSelectionEnd(high);
+                    editor.replace(snappedLow >= 0 ? snappedLow : low, snappedHigh >= 0 ? snappedHigh : high,
+                            random.nextBoolean() ? "" : "x");
+                    break;
+                }
+                default:
+                    editor.deleteController.onSelectionChanged(cursor, cursor);
+                    break;
+            }
+            MentionIndex<XlpsFriend> index = editor.engine.getIndex();
+            int owned = editor.mentionSpans.size() + editor.markSpans.size();
+            assertTrue(owned <= 2 * index.size());
+            assertTrue(editor.markSpans.size() <= 1);
+            // 登记表之外没有遗留的span
+            assertEquals(owned, editor.host.spans.size());
+            for (int i = 0; i < index.size(); i++) {
+                assertEquals(index.start(i), editor.mentionSpans.getSpanStart(index.get(i)));
+                assertEquals(index.end(i), editor.mentionSpans.getSpanEnd(index.get(i)));
+            }
+        }
+        editor.mentionSpans.clear();
+        editor.markSpans.clear();
+        assertEquals(0, editor.host.spans.size());
+    }
+}
@@ -0,0 +1,58 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * TriggerDetector 单元测试
+ */
+public class TriggerDetectorTest {
+    private final MentionRules mRules = new MentionRules(new MentionRule("@", 0), new MentionRule("#", "#t", 0));
+    private final TriggerDetector mDetector = new TriggerDetector(mRules);
+    private final MentionIndex<XlpsFriend> mIndex = new MentionIndex<XlpsFriend>();
+
+    private boolean detect(String text) {
+        return mDetector.detect(text, text.length(), mIndex);
+    }
+
+    @Test
+    public void detect_findsTriggerBeforeCursor() throws Exception {
+        assertTrue(detect("hi @to"));
+        assertEquals("@", mDetector.getRule().getTrigger());
+        assertEquals(3, mDetector.getTriggerStart());
+        assertEquals(4, mDetector.getQueryStart());
+        assertEquals(6, mDetector.getQueryEnd());
+
+        assertTrue(detect("@"));
+        assertEquals(1, mDetector.getQueryStart());
+
+        assertTrue(detect("go #top"));
+        assertEquals("#", mDetector.getRule().getTrigger());
+        assertEquals(3, mDetector.getTriggerStart());
+    }
+
+    @Test
+    public void detect_ignoresInactiveTriggers() throws Exception {
+        assertFalse(detect("hi @tom "));
+        assertFalse(detect("mail a@b"));
+        assertFalse(detect("no trigger"));
+        assertFalse(detect(""));
+        StringBuilder longQuery = new StringBuilder("@");
+        for (int i = 0; i <= TriggerDetector.MAX_QUERY_LENGTH; i++) {
+            longQuery.append('a');
+        }
+        assertFalse(detect(longQuery.toString()));
+    }
+
+    @Test
+    public void detect_doesNotCrossMentions() throws Exception {
+        // "@tom"是已有的@好友,后面紧接着输入的字符不是新的触发词
+        XlpsFriend tom = new XlpsFriend();
+        mIndex.add(tom, 0, 4);
+        assertFalse(detect("@tomx"));
+        assertFalse(mDetector.detect("@tomx", 2, mIndex));
+        assertTrue(detect("@tom @j"));
+        assertEquals(5, mDetector.getTriggerStart());
+    }
+}
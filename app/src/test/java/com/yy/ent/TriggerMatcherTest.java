@@ -0,0 +1,65 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TriggerMatcher 单元测试,与逐个规则暴力匹配对比
+ */
+public class TriggerMatcherTest {
+
+    private static List<String> scan(TriggerMatcher matcher, final CharSequence text) {
+        final List<String> matches = new ArrayList<String>();
+        matcher.scan(text, 0, text.length(), new TriggerMatcher.Callback() {
+            @Override
+            public void onMatch(int pattern, int start, int end) {
+                matches.add(pattern + ":" + start + "-" + end);
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * 每个结束位置取最长的匹配
+     */
+    private static List<String> naive(String[] patterns, String text) {
+        List<String> matches = new ArrayList<String>();
+        for (int end = 1; end <= text.length(); end++) {
+            int best = -1;
+            for (int p = 0; p < patterns.length; p++) {
+                if (text.startsWith(patterns[p], end - patterns[p].length())
+                        && (best < 0 || patterns[p].length() > patterns[best].length())) {
+                    best = p;
+                }
+            }
+            if (best >= 0) {
+                matches.add(best + ":" + (end - patterns[best].length()) + "-" + end);
+            }
+        }
+        return matches;
+    }
+
+    @Test
+    public void scan_findsLongestMatchAtEachEnd() throws Exception {
+        String[] patterns = {"@", "#", "$", "he", "she", "hers", "@@"};
+        TriggerMatcher matcher = new TriggerMatcher(patterns);
+        assertEquals(naive(patterns, "ushers @@a #b $c"), scan(matcher, "ushers @@a #b $c"));
+
+        Random random = new Random(17);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            text.append("@#$hers ".charAt(random.nextInt(8)));
+        }
+        assertEquals(naive(patterns, text.toString()), scan(matcher, text));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyTrigger_rejected() throws Exception {
+        new TriggerMatcher("@", "");
+    }
+}
@@ -0,0 +1,139 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * UserNameLoader 单元测试,用队列模拟主线程和后台线程
+ */
+public class UserNameLoaderTest {
+    private final ArrayDeque<Runnable> mMain = new ArrayDeque<Runnable>();
+    private final ArrayDeque<Runnable> mBackground = new ArrayDeque<Runnable>();
+    private final List<long[]> mBatches = new ArrayList<long[]>();
+    private final List<Map<Long, String>> mLoaded = new ArrayList<Map<Long, String>>();
+    private final UserNameCache mCache = new UserNameCache(3);
+    private boolean mFailing;// 模拟网络错误
+
+    private final UserNameLoader mLoader = new UserNameLoader(new UserNameResolver() {
+        @Override
+        public Map<Long, String> getUserNames(long[] userIds) {
+            mBatches.add(userIds);
+            if (mFailing) {
+                throw new IllegalStateException("offline");
+            }
+            Map<Long, String> names = new HashMap<Long, String>();
+            for (long userId : userIds) {
+                if (userId != 404) {
+                    names.put(userId, "u" + userId);
+                }
+            }
+            return names;
+        }
+    }, mCache, queue(mBackground), queue(mMain), new UserNameLoader.Listener() {
+        @Override
+        public void onUserNamesLoaded(Map<Long, String> userNames) {
+            mLoaded.add(userNames);
+        }
+    }, 2);
+
+    private static Executor queue(final ArrayDeque<Runnable> queue) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queue.add(command);
+            }
+        };
+    }
+
+    private void runAll() {
+        while (!mMain.isEmpty() || !mBackground.isEmpty()) {
+            while (!mMain.isEmpty()) {
+                mMain.poll().run();
+            }
+            while (!mBackground.isEmpty()) {
+                mBackground.poll().run();
+            }
+        }
+    }
+
+    @Test
+    public void request_batchesAndDeduplicates() throws Exception {
+        mLoader.request(1);
+        mLoader.request(2);
+        mLoader.request(1);
+        mLoader.request(404);
+        assertEquals(1, mMain.size());
+        runAll();
+        assertEquals(2, mBatches.size());
+        assertArrayEquals(new long[]{1, 2}, mBatches.get(0));
+        assertArrayEquals(new long[]{404}, mBatches.get(1));
+        assertEquals("u2", mCache.get(2));
+        assertEquals(1, mLoaded.size());
+        assertEquals(0, mLoader.getPendingCount());
+
+        // 已缓存的不再请求,获取失败的可以重新请求
+        mLoader.request(2);
+        mLoader.request(404);
+        runAll();
+        assertEquals(3, mBatches.size());
+        assertArrayEquals(new long[]{404}, mBatches.get(2));
+    }
+
+    @Test
+    public void retryUnresolved_requestsFailedAndMissingIds() throws Exception {
+        mFailing = true;
+        mLoader.request(1);
+        mLoader.request(404);
+        runAll();
+        assertEquals(2, mLoader.getUnresolvedCount());
+        assertTrue(mLoaded.isEmpty());
+
+        // 不会自动重试
+        runAll();
+        assertEquals(1, mBatches.size());
+
+        mFailing = false;
+        mLoader.retryUnresolved();
+        runAll();
+        assertEquals(2, mBatches.size());
+        assertArrayEquals(new long[]{1, 404}, mBatches.get(1));
+        assertEquals("u1", mCache.get(1));
+        // resolver没有返回的仍然记为未获取
+        assertEquals(1, mLoader.getUnresolvedCount());
+
+        mLoader.release();
+        assertEquals(0, mLoader.getUnresolvedCount());
+        mLoader.retryUnresolved();
+        assertTrue(mMain.isEmpty());
+    }
+
+    @Test
+    public void cache_evictsLeastRecentlyUsed() throws Exception {
+        mCache.put(1, "a");
+        mCache.put(2, "b");
+        mCache.put(3, "c");
+        mCache.get(1);
+        mCache.put(4, "d");
+        assertEquals(3, mCache.size());
+        assertNull(mCache.get(2));
+        assertEquals("a", mCache.get(1));
+    }
+
+    @Test
+    public void release_dropsResults() throws Exception {
+        mLoader.request(1);
+        mMain.poll().run();
+        mLoader.release();
+        runAll();
+        assertTrue(mLoaded.isEmpty());
+        assertNull(mCache.get(1));
+    }
+}
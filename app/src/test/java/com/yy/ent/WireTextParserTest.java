@@ -0,0 +1,93 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * WireTextParser 单元测试
+ */
+public class WireTextParserTest {
+    private static final WireTextParser.NameResolver RESOLVER = new WireTextParser.NameResolver() {
+        @Override
+        public String getUserName(long userId) {
+            return userId == 404 ? null : "u" + userId;
+        }
+    };
+
+    @Test
+    public void parse_restoresTextAndIndex() throws Exception {
+        WireTextParser parser = WireTextParser.parse("hi @12 and @-3 @404 @ @1x a@@7 @", RESOLVER);
+        assertEquals("hi @u12 and @u-3 @404 @ @1x a@@u7 @", parser.getText().toString());
+        MentionIndex<XlpsFriend> index = parser.getIndex();
+        assertEquals(3, index.size());
+        assertEquals(12, index.get(0).mUserId);
+        assertEquals("@u12 ", index.get(0).mUserName);
+        assertEquals(3, index.start(0));
+        assertEquals(8, index.end(0));
+        assertEquals(-3, index.get(1).mUserId);
+        assertEquals(7, index.get(2).mUserId);
+    }
+
+    @Test
+    public void parse_rejectsNonCanonicalIds() throws Exception {
+        String wire = "@007 @-0 @9223372036854775808 @-9223372036854775809 ";
+        WireTextParser parser = WireTextParser.parse(wire, RESOLVER);
+        assertEquals(wire, parser.getText().toString());
+        assertTrue(parser.getIndex().isEmpty());
+        parser = WireTextParser.parse("@9223372036854775807 @-9223372036854775808 ", RESOLVER);
+        assertEquals(Long.MAX_VALUE, parser.getIndex().get(0).mUserId);
+        assertEquals(Long.MIN_VALUE, parser.getIndex().get(1).mUserId);
+    }
+
+    @Test
+    public void feed_anySplitMatchesWholeParse() throws Exception {
+        String wire = "a @1 b@22 @x @404 @333";
+        WireTextParser whole = WireTextParser.parse(wire, RESOLVER);
+        for (int split = 0; split <= wire.length(); split++) {
+            WireTextParser parser = new WireTextParser(RESOLVER);
+            parser.feed(wire, 0, split).feed(wire, split, wire.length()).finish();
+            assertEquals(whole.getText().toString(), parser.getText().toString());
+            assertEquals(whole.getIndex().size(), parser.getIndex().size());
+            for (int i = 0; i < whole.getIndex().size(); i++) {
+                assertEquals(whole.getIndex().start(i), parser.getIndex().start(i));
+                assertEquals(whole.getIndex().end(i), parser.getIndex().end(i));
+            }
+        }
+    }
+
+    @Test
+    public void parse_multipleRules() throws Exception {
+        final MentionRules rules = new MentionRules(new MentionRule("@", 1),
+                new MentionRule("#", "#t", 2), new MentionRule("$", 3));
+        WireTextParser.EntityResolver resolver = new WireTextParser.EntityResolver() {
+            @Override
+            public String getName(MentionRule rule, long id) {
+                return rule.getTrigger().equals("$") ? "AAPL" : "n" + id;
+            }
+        };
+        String wire = "@1 #t2 #3 $4 ";
+        WireTextParser parser = new WireTextParser(rules, resolver, 0);
+        // 前缀"#t"跨分段
+        parser.feed(wire, 0, 4).feed(wire, 4, wire.length()).finish();
+        assertEquals("@n1 #n2 #3 $AAPL ", parser.getText().toString());
+        MentionIndex<XlpsFriend> index = parser.getIndex();
+        assertEquals(3, index.size());
+        assertEquals("#", index.get(1).mRule);
+        assertEquals(2, rules.colorOf(index.get(1), 0));
+
+        MentionEngine engine = new MentionEngine();
+        engine.setRules(rules);
+        engine.addAll(index, parser.getText().length());
+        assertEquals(wire, engine.getAtFriendText(parser.getText()));
+    }
+
+    @Test
+    public void roundTrip_throughEngine() throws Exception {
+        String wire = "hi @1 and @2 bye";
+        WireTextParser parser = WireTextParser.parse(wire, RESOLVER);
+        MentionEngine engine = new MentionEngine();
+        assertEquals(2, engine.addAll(parser.getIndex(), parser.getText().length()));
+        assertEquals(wire, engine.getAtFriendText(parser.getText()));
+    }
+}
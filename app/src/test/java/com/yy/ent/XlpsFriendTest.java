@@ -0,0 +1,64 @@
+package com.yy.ent;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * XlpsFriend 序列化兼容测试
+ */
+public class XlpsFriendTest {
+    // 移动前用RichEditText.XlpsFriend写出的对象: rule="#", userId=42, userName="@tom ", 3..8
+    private static final String LEGACY_HEX = ""
+            + "aced000573720022636f6d2e79792e656e742e52696368456469745465787424"
+            + "586c7073467269656e64f5b8023c6617e9be020006490006656e64506f734900"
+            + "056d466c61674a00076d5573657249644900087374617274506f734c00056d52"
+            + "756c657400124c6a6176612f6c616e672f537472696e673b4c00096d55736572"
+            + "4e616d6571007e0001787000000008000003e8000000000000002a0000000374"
+            + "00012374000540746f6d20";
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void legacyInputStream_readsDataSerializedAsNestedClass() throws Exception {
+        ObjectInputStream in = new XlpsFriend.LegacyInputStream(new ByteArrayInputStream(bytes(LEGACY_HEX)));
+        XlpsFriend xlpsFriend = (XlpsFriend) in.readObject();
+
+        assertEquals(XlpsFriend.class, xlpsFriend.getClass());
+        assertEquals("#", xlpsFriend.mRule);
+        assertEquals(42, xlpsFriend.mUserId);
+        assertEquals("@tom ", xlpsFriend.mUserName);
+        assertEquals(3, xlpsFriend.startPos);
+        assertEquals(8, xlpsFriend.endPos);
+        assertEquals(XlpsFriend.FLAG_NORMAL, xlpsFriend.mFlag);
+    }
+
+    @Test
+    public void legacyInputStream_readsCurrentData() throws Exception {
+        XlpsFriend xlpsFriend = new XlpsFriend();
+        xlpsFriend.mUserId = 7;
+        xlpsFriend.mUserName = "@amy ";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(xlpsFriend);
+        out.close();
+
+        ObjectInputStream in = new XlpsFriend.LegacyInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        XlpsFriend read = (XlpsFriend) in.readObject();
+
+        assertEquals(7, read.mUserId);
+        assertEquals("@amy ", read.mUserName);
+        assertEquals("@", read.mRule);
+    }
+}
@@ -0,0 +1,103 @@
+package com.yy.ent;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 草稿保存/恢复:二进制格式与每个@好友一个JSONObject的对比
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DraftCodecBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int mentionCount;
+
+    private StringBuilder mText;
+    private MentionIndex<XlpsFriend> mIndex;
+    private ByteBuffer mBuffer;
+    private byte[] mBinary;
+    private String mJson;
+
+    @Setup
+    public void setup() throws JSONException {
+        mText = new StringBuilder();
+        mIndex = new MentionIndex<XlpsFriend>();
+        for (int i = 0; i < mentionCount; i++) {
+            mText.append("hello ");
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mUserId = 10000 + i;
+            xlpsFriend.mUserName = "@user" + i + " ";
+            xlpsFriend.startPos = mText.length();
+            mText.append(xlpsFriend.mUserName);
+            xlpsFriend.endPos = mText.length();
+            mIndex.add(xlpsFriend, xlpsFriend.startPos, xlpsFriend.endPos);
+        }
+        mText.append("tail");
+        mBuffer = ByteBuffer.allocate(DraftCodec.maxEncodedSize(mText, mIndex));
+        encodeBinary();
+        mBinary = new byte[mBuffer.position()];
+        mBuffer.flip();
+        mBuffer.get(mBinary);
+        mJson = encodeJson();
+    }
+
+    @Benchmark
+    public int encodeBinary() {
+        mBuffer.clear();
+        DraftCodec.encode(mText, mIndex, mBuffer);
+        return mBuffer.position();
+    }
+
+    @Benchmark
+    public int decodeBinary() {
+        StringBuilder text = new StringBuilder();
+        MentionIndex<XlpsFriend> index = new MentionIndex<XlpsFriend>();
+        DraftCodec.decode(ByteBuffer.wrap(mBinary), text, index);
+        return index.size();
+    }
+
+    @Benchmark
+    public String encodeJson() throws JSONException {
+        JSONArray friends = new JSONArray();
+        for (int i = 0; i < mIndex.size(); i++) {
+            friends.put(mIndex.get(i).getJsonObject());
+        }
+        JSONObject draft = new JSONObject();
+        draft.put("text", mText.toString());
+        draft.put("friends", friends);
+        return draft.toString();
+    }
+
+    @Benchmark
+    public int decodeJson() throws JSONException {
+        JSONObject draft = new JSONObject(mJson);
+        JSONArray friends = draft.getJSONArray("friends");
+        MentionIndex<XlpsFriend> index = new MentionIndex<XlpsFriend>();
+        String text = draft.getString("text");
+        for (int i = 0; i < friends.length(); i++) {
+            XlpsFriend xlpsFriend = XlpsFriend.parseJSONObject(friends.getJSONObject(i));
+            index.add(xlpsFriend, xlpsFriend.startPos, xlpsFriend.endPos);
+        }
+        return index.size() + text.length();
+    }
+}
@@ -0,0 +1,156 @@
+package com.yy.ent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @好友编辑逻辑的性能基准
+ * <p>
+ * 文本形如"hello @user0 hello @user1 ... tail",分别测试不同@好友个数下
+ * 开头/中间/结尾的输入删除、光标移动、生成/解析"@用户id "文本以及批量加载
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MentionEngineBenchmark {
+
+    private static final WireTextParser.NameResolver RESOLVER = new WireTextParser.NameResolver() {
+        @Override
+        public String getUserName(long userId) {
+            return "user" + (userId - 10000);
+        }
+    };
+
+    @Param({"1", "10", "100", "1000"})
+    public int mentionCount;
+
+    private StringBuilder mText;
+    private ArrayList<XlpsFriend> mXlpsFriends;
+    private MentionEngine mEngine;
+    private int mMiddle;
+    private int mTail;
+    private int mCursor;
+    private final StringBuilder mBuffer = new StringBuilder();
+    private String mWireText;
+
+    @Setup
+    public void setup() {
+        mText = new StringBuilder();
+        mXlpsFriends = new ArrayList<XlpsFriend>(mentionCount);
+        for (int i = 0; i < mentionCount; i++) {
+            mText.append("hello ");
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mUserId = 10000 + i;
+            xlpsFriend.mUserName = "@user" + i + " ";
+            xlpsFriend.startPos = mText.length();
+            mText.append(xlpsFriend.mUserName);
+            xlpsFriend.endPos = mText.length();
+            mXlpsFriends.add(xlpsFriend);
+        }
+        mText.append("tail");
+        mEngine = new MentionEngine();
+        mEngine.addAll(mXlpsFriends, mText.length());
+        // 中间那个@好友前面的位置
+        mMiddle = mXlpsFriends.get(mentionCount / 2).startPos - 1;
+        mTail = mText.length();
+        mCursor = 0;
+        mWireText = mEngine.getAtFriendText(mText);
+    }
+
+    /**
+     * 在offset处输入一个字符再删掉,文本和@好友位置保持不变
+     */
+    private int typeAndDelete(int offset) {
+        int removed = mEngine.beforeTextChanged(offset, 0, 1);
+        removed += mEngine.onTextChanged(offset, 0, 1);
+        removed += mEngine.beforeTextChanged(offset, 1, 0);
+        removed += mEngine.onTextChanged(offset, 1, 0);
+        return removed;
+    }
+
+    @Benchmark
+    public int editHead() {
+        return typeAndDelete(0);
+    }
+
+    @Benchmark
+    public int editMiddle() {
+        return typeAndDelete(mMiddle);
+    }
+
+    @Benchmark
+    public int editTail() {
+        return typeAndDelete(mTail);
+    }
+
+    /**
+     * 光标在文本中跳动,对应handleOnSelectionChanged
+     */
+    @Benchmark
+    public int cursorMove() {
+        mCursor += 7;
+        if (mCursor > mTail) {
+            mCursor -= mTail;
+        }
+        return mEngine.snapCursor(mCursor);
+    }
+
+    /**
+     * 对应getAtFriendText
+     */
+    @Benchmark
+    public String serialize() {
+        return mEngine.getAtFriendText(mText);
+    }
+
+    /**
+     * 写入复用的缓冲区,对应writeAtFriendText
+     */
+    @Benchmark
+    public int serializeToBuffer() throws IOException {
+        mBuffer.setLength(0);
+        return mEngine.writeAtFriendText(mText, mBuffer).length();
+    }
+
+    /**
+     * 添加@好友前的重复检查,对应isExistFriend
+     */
+    @Benchmark
+    public boolean duplicateCheck() {
+        return mEngine.containsUser(10000 + mentionCount);
+    }
+
+    /**
+     * 从"@用户id "文本还原显示文本和索引,对应setWireText
+     */
+    @Benchmark
+    public int parseWireText() {
+        return WireTextParser.parse(mWireText, RESOLVER).getIndex().size();
+    }
+
+    /**
+     * 对应setXlpsFriends
+     */
+    @Benchmark
+    public MentionEngine bulkLoad() {
+        MentionEngine engine = new MentionEngine();
+        engine.addAll(mXlpsFriends, mTail);
+        return engine;
+    }
+}
@@ -0,0 +1,79 @@
+package com.yy.ent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自动补全:每次按键的触发词检测,以及前缀索引与线性扫描联系人的对比
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuggestionBenchmark {
+    private static final int LIMIT = 20;
+
+    @Param({"1000", "50000"})
+    public int contactCount;
+
+    @Param({"u", "user1a"})
+    public String prefix;
+
+    private List<XlpsFriend> mContacts;
+    private ContactPrefixIndex mIndex;
+    private TriggerDetector mDetector;
+    private MentionIndex<XlpsFriend> mMentions;
+    private String mText;
+
+    @Setup
+    public void setup() {
+        mContacts = new ArrayList<XlpsFriend>(contactCount);
+        for (int i = 0; i < contactCount; i++) {
+            XlpsFriend xlpsFriend = new XlpsFriend();
+            xlpsFriend.mUserId = i;
+            xlpsFriend.mUserName = "User" + Integer.toString(i * 7919 % contactCount, 36);
+            mContacts.add(xlpsFriend);
+        }
+        mIndex = new ContactPrefixIndex(mContacts);
+        mDetector = new TriggerDetector(MentionRules.users(0));
+        mMentions = new MentionIndex<XlpsFriend>();
+        mText = "hello world, this is a long message @" + prefix;
+    }
+
+    @Benchmark
+    public boolean detectTrigger() {
+        return mDetector.detect(mText, mText.length(), mMentions);
+    }
+
+    @Benchmark
+    public List<XlpsFriend> prefixIndex() {
+        return mIndex.query(prefix, LIMIT);
+    }
+
+    @Benchmark
+    public List<XlpsFriend> linearScan() {
+        List<XlpsFriend> result = new ArrayList<XlpsFriend>();
+        String lower = prefix.toLowerCase();
+        for (int i = 0; i < mContacts.size() && result.size() < LIMIT; i++) {
+            if (mContacts.get(i).mUserName.toLowerCase().startsWith(lower)) {
+                result.add(mContacts.get(i));
+            }
+        }
+        return result;
+    }
+}